@@ -0,0 +1,24 @@
+package hs.kwords.bench;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Secondary results reported next to ops/s: input bytes and tokens per
+ * second.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class BytesCounter {
+	public long bytes;
+	public long tokens;
+
+	@Setup(Level.Iteration)
+	public void reset() {
+		bytes = 0;
+		tokens = 0;
+	}
+}
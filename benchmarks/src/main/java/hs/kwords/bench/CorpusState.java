@@ -0,0 +1,60 @@
+package hs.kwords.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * A Zipfian corpus shared by all threads of a benchmark, generated once per
+ * trial, and a stop word file holding its most frequent words.
+ */
+@State(Scope.Benchmark)
+public class CorpusState {
+	@Param({ "4194304" })
+	public int corpusBytes;
+
+	@Param({ "10000", "1000000" })
+	public int vocabulary;
+
+	@Param({ "1.0" })
+	public double exponent;
+
+	@Param({ "50" })
+	public int stopWords;
+
+	public byte[] text;
+	public File stopWordFile;
+
+	@Setup
+	public void generate() throws IOException {
+		ZipfCorpus corpus = new ZipfCorpus(vocabulary, exponent, 42);
+		text = corpus.generate(corpusBytes);
+		stopWordFile = File.createTempFile("stop_words", ".txt");
+		FileWriter out = new FileWriter(stopWordFile);
+		try {
+			for (String w : corpus.mostFrequent(stopWords)) {
+				out.write(w);
+				out.write('\n');
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	@TearDown
+	public void delete() {
+		stopWordFile.delete();
+	}
+
+	public InputStream open() {
+		return new ByteArrayInputStream(text);
+	}
+}
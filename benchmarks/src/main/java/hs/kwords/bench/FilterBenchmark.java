@@ -0,0 +1,86 @@
+package hs.kwords.bench;
+
+import hs.kwords.CharTokenizer;
+import hs.kwords.LowerCaseFilter;
+import hs.kwords.LowerCaseStopWordFilter;
+import hs.kwords.StopWordFilter;
+import hs.kwords.TokenBatch;
+import hs.kwords.TokenFilter;
+import hs.kwords.TokenStream;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Runs a corpus through a TokenStream over CharTokenizer with different filter
+ * chains, so the cost of the filters can be told from the cost of
+ * tokenizing. "fused" is the LowerCaseStopWordFilter, which works on the
+ * tokenizer's slices. The "batch" api reads TokenBatches instead of Strings;
+ * the batch is shared, so only use it with one thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FilterBenchmark {
+	@Param({ "none", "lowercase", "lowercase+stopwords", "fused" })
+	public String filters;
+
+	@Param({ "token", "batch" })
+	public String api;
+
+	private TokenFilter[] chain;
+	private TokenBatch batch = new TokenBatch();
+
+	@Setup
+	public void setup(CorpusState corpus) throws IOException {
+		if (filters.equals("none")) {
+			chain = new TokenFilter[0];
+		} else if (filters.equals("lowercase")) {
+			chain = new TokenFilter[] { new LowerCaseFilter() };
+		} else if (filters.equals("lowercase+stopwords")) {
+			chain = new TokenFilter[] { new LowerCaseFilter(),
+					new StopWordFilter(corpus.stopWordFile.getPath()) };
+		} else if (filters.equals("fused")) {
+			chain = new TokenFilter[] { new LowerCaseStopWordFilter(
+					corpus.stopWordFile.getPath()) };
+		} else {
+			throw new IllegalArgumentException("Unknown filters: " + filters);
+		}
+	}
+
+	@Benchmark
+	public void filter(CorpusState corpus, BytesCounter counter, Blackhole bh) {
+		TokenStream ts = new TokenStream(new CharTokenizer(corpus.open()),
+				chain);
+		long n = 0;
+		if (api.equals("batch")) {
+			while (ts.nextBatch(batch)) {
+				bh.consume(batch.array());
+				n += batch.size();
+			}
+		} else {
+			while (ts.hasNext()) {
+				bh.consume(ts.next());
+				n++;
+			}
+		}
+		counter.bytes += corpus.text.length;
+		counter.tokens += n;
+	}
+}
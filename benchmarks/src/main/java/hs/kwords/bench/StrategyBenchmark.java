@@ -0,0 +1,67 @@
+package hs.kwords.bench;
+
+import hs.kwords.CharTokenizer;
+import hs.kwords.ExternalSortWordCountStrategy;
+import hs.kwords.InMemoryWordCountStrategy;
+import hs.kwords.LowerCaseStopWordFilter;
+import hs.kwords.TokenStream;
+import hs.kwords.WordCountPair;
+import hs.kwords.WordCountStrategy;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Top and bottom K of a whole corpus per operation, filters included. The
+ * external sort spills to tmp/ under the working directory; its memory
+ * budget is a parameter so that both the single run and the multi run paths
+ * can be measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class StrategyBenchmark {
+	@Param({ "inmemory", "externalsort" })
+	public String strategy;
+
+	@Param({ "1048576" })
+	public long memoryBudget;
+
+	@Benchmark
+	public Map<String, List<WordCountPair>> count(CorpusState corpus,
+			BytesCounter counter) throws IOException {
+		TokenStream ts = new TokenStream(new CharTokenizer(corpus.open()),
+				new LowerCaseStopWordFilter(corpus.stopWordFile.getPath()));
+		WordCountStrategy s;
+		if (strategy.equals("inmemory")) {
+			s = new InMemoryWordCountStrategy(ts);
+		} else if (strategy.equals("externalsort")) {
+			ExternalSortWordCountStrategy e = new ExternalSortWordCountStrategy(
+					ts);
+			e.setMemoryBudget(memoryBudget);
+			s = e;
+		} else {
+			throw new IllegalArgumentException("Unknown strategy: " + strategy);
+		}
+		s.compute();
+		counter.bytes += corpus.text.length;
+		counter.tokens += s.getMetrics().getTokens();
+		return s.get();
+	}
+}
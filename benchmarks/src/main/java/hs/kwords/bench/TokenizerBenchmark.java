@@ -0,0 +1,95 @@
+package hs.kwords.bench;
+
+import hs.kwords.CharTokenizer;
+import hs.kwords.EnglishTokenizer;
+import hs.kwords.TokenBatch;
+import hs.kwords.Tokenizer;
+import hs.kwords.Utf8Tokenizer;
+import hs.kwords.WhiteSpaceTokenizer;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Tokenizes a whole corpus per operation, token by token or a batch at a
+ * time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenizerBenchmark {
+	@Param({ "whitespace", "english", "char", "utf8" })
+	public String tokenizer;
+
+	static Tokenizer create(String name, InputStream in) {
+		if (name.equals("whitespace"))
+			return new WhiteSpaceTokenizer(in);
+		if (name.equals("english"))
+			return new EnglishTokenizer(in);
+		if (name.equals("char"))
+			return new CharTokenizer(in);
+		throw new IllegalArgumentException("Unknown tokenizer: " + name);
+	}
+
+	// a direct buffer, as a mapped file would be
+	private ByteBuffer direct;
+
+	@Setup
+	public void setUp(CorpusState corpus) {
+		direct = ByteBuffer.allocateDirect(corpus.text.length);
+		direct.put(corpus.text).flip();
+	}
+
+	private Tokenizer open(CorpusState corpus) {
+		if (tokenizer.equals("utf8"))
+			return new Utf8Tokenizer(direct);
+		return create(tokenizer, corpus.open());
+	}
+
+	@Benchmark
+	public void tokenize(CorpusState corpus, BytesCounter counter,
+			Blackhole bh) {
+		Tokenizer t = open(corpus);
+		long n = 0;
+		while (t.hasNext()) {
+			bh.consume(t.next());
+			n++;
+		}
+		counter.bytes += corpus.text.length;
+		counter.tokens += n;
+	}
+
+	/**
+	 * Tokenizes into a reused TokenBatch, as the strategies do.
+	 */
+	@Benchmark
+	public void fill(CorpusState corpus, BytesCounter counter, Blackhole bh) {
+		Tokenizer t = open(corpus);
+		TokenBatch batch = new TokenBatch();
+		long n = 0;
+		while (t.fill(batch)) {
+			n += batch.size();
+			bh.consume(batch.array());
+			batch.clear();
+		}
+		counter.bytes += corpus.text.length;
+		counter.tokens += n;
+	}
+}
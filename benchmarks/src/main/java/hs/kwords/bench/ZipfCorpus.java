@@ -0,0 +1,92 @@
+package hs.kwords.bench;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generates text whose word frequencies follow a Zipf distribution, which is
+ * close to what natural language looks like: a few words make up most of the
+ * text and most words occur only a handful of times. The output only depends
+ * on the parameters and the seed, so runs are comparable.
+ */
+public class ZipfCorpus {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String PUNCTUATION = ",.;:!?";
+
+	private String[] words;
+	private double[] cumulative;
+	private Random random;
+
+	/**
+	 * exponent is the Zipf exponent s, the frequency of the word of rank r
+	 * being proportional to 1 / r^s. Around 1 for natural language.
+	 */
+	public ZipfCorpus(int vocabulary, double exponent, long seed) {
+		random = new Random(seed);
+		words = new String[vocabulary];
+		cumulative = new double[vocabulary];
+		double sum = 0;
+		for (int r = 0; r < vocabulary; r++) {
+			words[r] = word(r);
+			sum += 1 / Math.pow(r + 1, exponent);
+			cumulative[r] = sum;
+		}
+		for (int r = 0; r < vocabulary; r++) {
+			cumulative[r] /= sum;
+		}
+	}
+
+	/*
+	 * frequent words get short names, like they do in English. Ranks are
+	 * numbered in bijective base 26 from the first two letter name on, so
+	 * every rank gets a name of its own and none is a single letter.
+	 */
+	private static String word(int rank) {
+		StringBuilder sb = new StringBuilder();
+		int n = rank + 27;
+		while (n > 0) {
+			n--;
+			sb.append((char) ('a' + n % 26));
+			n /= 26;
+		}
+		return sb.toString();
+	}
+
+	public String nextWord() {
+		int i = Arrays.binarySearch(cumulative, random.nextDouble());
+		if (i < 0)
+			i = -i - 1;
+		return words[Math.min(i, words.length - 1)];
+	}
+
+	/**
+	 * About size bytes of text, ten words to a line. Some words are
+	 * capitalized or followed by punctuation so that filters have work to do.
+	 */
+	public byte[] generate(int size) {
+		StringBuilder sb = new StringBuilder(size + 64);
+		int n = 0;
+		while (sb.length() < size) {
+			String w = nextWord();
+			if (random.nextInt(16) == 0) {
+				sb.append(Character.toUpperCase(w.charAt(0)));
+				sb.append(w, 1, w.length());
+			} else {
+				sb.append(w);
+			}
+			if (random.nextInt(12) == 0)
+				sb.append(PUNCTUATION.charAt(random.nextInt(PUNCTUATION
+						.length())));
+			sb.append(++n % 10 == 0 ? '\n' : ' ');
+		}
+		return sb.toString().getBytes(UTF8);
+	}
+
+	/**
+	 * The n most frequent words, to be used as stop words.
+	 */
+	public String[] mostFrequent(int n) {
+		return Arrays.copyOf(words, Math.min(n, words.length));
+	}
+}
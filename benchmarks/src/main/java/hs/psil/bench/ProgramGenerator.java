@@ -0,0 +1,91 @@
+package hs.psil.bench;
+
+import java.nio.charset.Charset;
+
+/**
+ * Generates large Psil programs of a few shapes. The programs are valid and
+ * evaluate without errors; results may overflow, which Psil does not check.
+ */
+public class ProgramGenerator {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * One + form with n operands, alternating with * forms of three operands
+	 * so both symbols are exercised: (+ 1 (* 2 3 4) 5 ...)
+	 */
+	public static String wide(int n) {
+		StringBuilder sb = new StringBuilder("(+");
+		for (int i = 0; i < n; i++) {
+			sb.append(' ');
+			if (i % 2 == 0) {
+				sb.append(i % 97);
+			} else {
+				sb.append("(* ").append(i % 7).append(' ').append(i % 5)
+						.append(' ').append(3).append(')');
+			}
+		}
+		return sb.append(')').toString();
+	}
+
+	/**
+	 * n top level binds, each depending on the one before, followed by a form
+	 * reading the last: (bind ba 1) (bind ca (+ ba 1)) ... (* va 2)
+	 */
+	public static String bindChain(int n) {
+		StringBuilder sb = new StringBuilder("(bind ").append(name(0))
+				.append(" 1)\n");
+		for (int i = 1; i < n; i++) {
+			sb.append("(bind ").append(name(i)).append(" (+ ")
+					.append(name(i - 1)).append(' ').append(i % 10)
+					.append("))\n");
+		}
+		return sb.append("(* ").append(name(n - 1)).append(" 2)").toString();
+	}
+
+	/**
+	 * Forms nested n deep, cycling through +, * and -:
+	 * (+ 1 (* 2 (- 3 (+ 4 ... ))))
+	 */
+	public static String deep(int n) {
+		StringBuilder sb = new StringBuilder();
+		String ops = "+*-";
+		for (int i = 0; i < n; i++) {
+			sb.append('(').append(ops.charAt(i % 3)).append(' ')
+					.append(i % 10).append(' ');
+		}
+		sb.append('1');
+		for (int i = 0; i < n; i++) {
+			sb.append(')');
+		}
+		return sb.toString();
+	}
+
+	public static String generate(String shape, int n) {
+		if (shape.equals("wide"))
+			return wide(n);
+		if (shape.equals("bind"))
+			return bindChain(n);
+		if (shape.equals("deep"))
+			return deep(n);
+		throw new IllegalArgumentException("Unknown shape: " + shape);
+	}
+
+	public static byte[] bytes(String program) {
+		return program.getBytes(UTF8);
+	}
+
+	/*
+	 * letters only, as the lexer reads variables, and never "bind"; the
+	 * trailing 'a' keeps single letters away from keywords
+	 */
+	private static String name(int i) {
+		StringBuilder sb = new StringBuilder();
+		int n = i + 1;
+		while (n > 0) {
+			n--;
+			sb.append((char) ('b' + n % 24));
+			n /= 24;
+		}
+		return sb.append('a').toString();
+	}
+}
@@ -0,0 +1,88 @@
+package hs.psil.bench;
+
+import hs.psil.SyntaxTreeBuilder;
+import hs.psil.expression.SExpression;
+import hs.psil.lexer.Lexer;
+import hs.psil.lexer.Token;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Lexing, building and evaluating generated programs, measured separately so
+ * that parse and evaluation cost can be compared for the same program. The
+ * tree evaluated by evaluate() is built once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PsilBenchmark {
+	@Param({ "wide", "bind", "deep" })
+	public String shape;
+
+	@Param({ "100", "1000" })
+	public int size;
+
+	private byte[] program;
+	private SExpression tree;
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class TokenCounter {
+		public long tokens;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			tokens = 0;
+		}
+	}
+
+	@Setup
+	public void generate() {
+		program = ProgramGenerator.bytes(ProgramGenerator.generate(shape, size));
+		tree = new SyntaxTreeBuilder().build(new ByteArrayInputStream(program));
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public void lex(TokenCounter counter, Blackhole bh) throws IOException {
+		Lexer lexer = new Lexer(new ByteArrayInputStream(program));
+		Token t;
+		long n = 0;
+		while ((t = lexer.next()) != null) {
+			bh.consume(t);
+			n++;
+		}
+		counter.tokens += n;
+	}
+
+	@Benchmark
+	public SExpression build() {
+		return new SyntaxTreeBuilder().build(new ByteArrayInputStream(program));
+	}
+
+	@Benchmark
+	public int evaluate() {
+		return tree.evaluate();
+	}
+}
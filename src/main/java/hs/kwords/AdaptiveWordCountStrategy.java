@@ -0,0 +1,161 @@
+package hs.kwords;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts in memory like the inmemory strategy for as long as the count table
+ * stays within a heap budget, and falls back to the external sort only when
+ * it does not, like hybrid hash aggregation in databases. Small inputs never
+ * touch the disk. When the budget is crossed, the table is spilled as the
+ * first sorted run and the external sort goes on with the rest of the stream,
+ * so no token is read twice.
+ */
+public class AdaptiveWordCountStrategy implements WordCountStrategy {
+	private TokenStream ts;
+	private final int K;
+	private long memoryBudget = defaultMemoryBudget();
+	private int fanIn = KWayMerger.DEFAULT_FAN_IN;
+	private int pipelineDepth = ExternalSortWordCountStrategy.DEFAULT_PIPELINE_DEPTH;
+	private RunFormat runFormat = RunFormat.BINARY;
+	private File indexFile = null;
+	private boolean verbose = false;
+	private boolean spilled = false;
+	private WordCountMetrics metrics = new WordCountMetrics("adaptive");
+	private Map<String, List<WordCountPair>> rv = new HashMap<String, List<WordCountPair>>();
+
+	{
+		rv.put("top", new ArrayList<WordCountPair>());
+		rv.put("bottom", new ArrayList<WordCountPair>());
+	}
+
+	public AdaptiveWordCountStrategy(TokenStream ts) {
+		this(ts, DEFAULT_K);
+	}
+
+	public AdaptiveWordCountStrategy(TokenStream ts, int k) {
+		this.ts = ts;
+		this.K = k;
+	}
+
+	/**
+	 * A quarter of the maximum heap, which leaves room for the table to
+	 * double while it grows.
+	 */
+	public static long defaultMemoryBudget() {
+		return Runtime.getRuntime().maxMemory() / 4;
+	}
+
+	/**
+	 * Sets how large the count table may grow, as
+	 * WordCountTable.memoryFootprint() reports it, before counting moves to
+	 * disk. The external sort then uses the same budget.
+	 */
+	public void setMemoryBudget(long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	public void setMergeFanIn(int fanIn) {
+		this.fanIn = fanIn;
+	}
+
+	public void setPipelineDepth(int pipelineDepth) {
+		this.pipelineDepth = pipelineDepth;
+	}
+
+	public void setRunFormat(RunFormat runFormat) {
+		this.runFormat = runFormat;
+	}
+
+	public void setIndexFile(File indexFile) {
+		this.indexFile = indexFile;
+	}
+
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
+
+	/**
+	 * True if the last compute() crossed the budget and used the disk.
+	 */
+	public boolean hasSpilled() {
+		return spilled;
+	}
+
+	public void compute() throws IOException {
+		WordCountMetrics.Phase phase = metrics.beginPhase("count");
+		WordCountTable table = new WordCountTable();
+		TokenBatch batch = new TokenBatch();
+		long tokenCount = 0;
+		spilled = false;
+		while (ts.nextBatch(batch)) {
+			table.incrementAll(batch);
+			tokenCount += batch.size();
+			if (table.memoryFootprint() > memoryBudget) {
+				spilled = true;
+				break;
+			}
+		}
+		metrics.addTokens(tokenCount);
+		metrics.recordTable(table);
+		phase.end();
+
+		if (spilled) {
+			if (verbose)
+				System.out.println("Spilling after " + tokenCount + " tokens");
+			ExternalSortWordCountStrategy external = new ExternalSortWordCountStrategy(
+					ts, K, metrics);
+			external.setMemoryBudget(memoryBudget);
+			external.setMergeFanIn(fanIn);
+			external.setPipelineDepth(pipelineDepth);
+			external.setRunFormat(runFormat);
+			external.setIndexFile(indexFile);
+			external.setVerbose(verbose);
+			external.compute(table);
+			rv = external.get();
+			return;
+		}
+		metrics.addBytesRead(ts.getBytesRead());
+
+		phase = metrics.beginPhase("select");
+		TopKSelector selector = new TopKSelector(K);
+		selector.offerAll(table);
+		rv.put("top", selector.top());
+		rv.put("bottom", selector.bottom());
+		if (indexFile != null)
+			writeIndex(table);
+		phase.end();
+		metrics.commit();
+	}
+
+	private void writeIndex(WordCountTable table) throws IOException {
+		// the index wants UTF-8 byte order
+		int[] ids = table.sortedIds();
+		byte[] arena = table.keyArena();
+		WordIndexWriter writer = new WordIndexWriter(indexFile);
+		boolean added = false;
+		try {
+			for (int id : ids) {
+				writer.add(arena, table.keyOffset(id), table.keyLength(id),
+						table.count(id));
+			}
+			added = true;
+		} finally {
+			if (!added)
+				writer.abort();
+		}
+		writer.close();
+	}
+
+	public Map<String, List<WordCountPair>> get() {
+		return rv;
+	}
+
+	public WordCountMetrics getMetrics() {
+		return metrics;
+	}
+}
@@ -0,0 +1,112 @@
+package hs.kwords;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Approximate counting in fixed memory, for streams whose vocabulary is too
+ * large to count exactly. Heavy hitters are tracked with Space-Saving, and
+ * every word also goes into a Count-Min sketch which answers point queries and
+ * tightens the upper bound of the reported counts.
+ *
+ * With n tokens, every reported count c with error e means the true count lies
+ * in [c - e, c], and e is at most epsilon * n. The sketch may add another
+ * epsilon * n to point queries with probability delta.
+ *
+ * The bottom list can only contain tracked words, so it holds the least
+ * frequent heavy hitter candidates rather than the rarest words of the input.
+ */
+public class ApproximateWordCountStrategy implements WordCountStrategy {
+	public static final double DEFAULT_EPSILON = 0.0001;
+	public static final double DEFAULT_DELTA = 0.01;
+
+	private TokenStream ts;
+	private final int K;
+	private SpaceSaving heavyHitters;
+	private CountMinSketch sketch;
+	private WordCountMetrics metrics = new WordCountMetrics("approximate");
+	private Map<String, List<WordCountPair>> rv = new HashMap<String, List<WordCountPair>>();
+
+	{
+		rv.put("top", new ArrayList<WordCountPair>());
+		rv.put("bottom", new ArrayList<WordCountPair>());
+	}
+
+	public ApproximateWordCountStrategy(TokenStream ts) {
+		this(ts, DEFAULT_K, DEFAULT_EPSILON, DEFAULT_DELTA);
+	}
+
+	public ApproximateWordCountStrategy(TokenStream ts, int k,
+			double epsilon, double delta) {
+		this.ts = ts;
+		this.K = k;
+		this.sketch = new CountMinSketch(epsilon, delta);
+		this.heavyHitters = new SpaceSaving(Math.max(k,
+				(int) Math.ceil(1 / epsilon)));
+	}
+
+	public void compute() {
+		WordCountMetrics.Phase phase = metrics.beginPhase("count");
+		long tokenCount = 0;
+		TokenBatch batch = new TokenBatch();
+		while (ts.nextBatch(batch)) {
+			char[] chars = batch.array();
+			for (int i = 0; i < batch.size(); i++) {
+				// one hash per token, and no String unless it is tracked
+				long h = CountMinSketch.hash(chars, batch.offset(i),
+						batch.length(i));
+				heavyHitters.offer(chars, batch.offset(i), batch.length(i), h);
+				sketch.add(h, 1);
+			}
+			tokenCount += batch.size();
+		}
+		metrics.addTokens(tokenCount);
+		metrics.addBytesRead(ts.getBytesRead());
+		phase.end();
+
+		phase = metrics.beginPhase("select");
+
+		List<WordCountPair> entries = heavyHitters.entries();
+		for (WordCountPair p : entries) {
+			// both are upper bounds, keep the tighter one
+			int upper = Math.min(p.count, sketch.estimate(p.word));
+			int lower = p.count - p.error;
+			p.count = upper;
+			p.error = Math.max(0, upper - lower);
+		}
+
+		Collections.sort(entries, TopKSelector.TOP_ORDER);
+		rv.put("top", new ArrayList<WordCountPair>(entries.subList(0,
+				Math.min(K, entries.size()))));
+		Collections.sort(entries, TopKSelector.BOTTOM_ORDER);
+		rv.put("bottom", new ArrayList<WordCountPair>(entries.subList(0,
+				Math.min(K, entries.size()))));
+		phase.end();
+		metrics.commit();
+	}
+
+	/**
+	 * Upper bound of how often word occurred.
+	 */
+	public int estimate(String word) {
+		return sketch.estimate(word);
+	}
+
+	/**
+	 * Number of tokens counted.
+	 */
+	public long total() {
+		return sketch.total();
+	}
+
+	public Map<String, List<WordCountPair>> get() {
+		return rv;
+	}
+
+	public WordCountMetrics getMetrics() {
+		return metrics;
+	}
+}
@@ -0,0 +1,12 @@
+package hs.kwords;
+
+/**
+ * A TokenFilter which also works on a whole TokenBatch at a time, in place.
+ */
+public interface BatchFilter extends TokenFilter {
+	/**
+	 * Same result as calling filter(String) on every token of the batch,
+	 * dropping the tokens it returns null for.
+	 */
+	public void filter(TokenBatch batch);
+}
@@ -0,0 +1,183 @@
+package hs.kwords;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads runs written by BinaryRunWriter. The current word is decoded into a
+ * reused byte array, so next() does not allocate. Compressed blocks are
+ * inflated into the read buffer one at a time.
+ */
+public class BinaryRunReader implements RunReader {
+	private FileInputStream in;
+	private FileChannel channel;
+	private ByteBuffer buf;
+	private boolean prefixCompression;
+	private byte[] key = new byte[64];
+	private int keyLength = 0;
+	private int count;
+	private Inflater inflater = null;
+	private ByteBuffer block = null;
+	private ByteBuffer blockHeader = null;
+
+	public BinaryRunReader(File f, int bufferSize) throws IOException {
+		this.in = new FileInputStream(f);
+		this.channel = in.getChannel();
+		this.buf = ByteBuffer.allocateDirect(Math.max(bufferSize, 64));
+		buf.flip();
+		if (!ensure(BinaryRunWriter.MAGIC.length + 1)) {
+			close();
+			throw new IOException("Not a binary run file: " + f);
+		}
+		for (byte b : BinaryRunWriter.MAGIC) {
+			if (buf.get() != b) {
+				close();
+				throw new IOException("Not a binary run file: " + f);
+			}
+		}
+		int flags = buf.get();
+		prefixCompression = (flags & BinaryRunWriter.FLAG_PREFIX_COMPRESSION) != 0;
+		if ((flags & BinaryRunWriter.FLAG_BLOCK_COMPRESSION) != 0) {
+			inflater = new Inflater();
+			block = ByteBuffer.allocateDirect(buf.capacity());
+			blockHeader = ByteBuffer.allocate(BinaryRunWriter.BLOCK_HEADER_SIZE);
+			// the header was read on its own, the blocks start behind it
+			channel.position(BinaryRunWriter.MAGIC.length + 1);
+			buf.clear();
+			buf.flip();
+		}
+	}
+
+	private boolean readFully(ByteBuffer b) throws IOException {
+		while (b.hasRemaining()) {
+			if (channel.read(b) < 0) {
+				if (b.position() == 0)
+					return false;
+				throw new EOFException("Truncated run file");
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * inflates the next block behind the unread bytes of buf, which is being
+	 * filled. Returns false at the end of the file.
+	 */
+	private boolean readBlock() throws IOException {
+		blockHeader.clear();
+		if (!readFully(blockHeader))
+			return false;
+		int length = blockHeader.getInt(0);
+		int compressed = blockHeader.getInt(4);
+		if (block.capacity() < compressed)
+			block = ByteBuffer.allocateDirect(compressed);
+		block.clear();
+		block.limit(compressed);
+		if (!readFully(block))
+			throw new EOFException("Truncated run file");
+		block.flip();
+		if (buf.remaining() < length) {
+			ByteBuffer bigger = ByteBuffer.allocateDirect(buf.position()
+					+ length);
+			buf.flip();
+			bigger.put(buf);
+			buf = bigger;
+		}
+		inflater.reset();
+		inflater.setInput(block);
+		int end = buf.position() + length;
+		try {
+			while (buf.position() < end) {
+				if (inflater.inflate(buf) == 0
+						&& (inflater.finished() || inflater.needsInput()))
+					throw new IOException("Corrupt block in run file");
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupt block in run file", e);
+		}
+		return true;
+	}
+
+	/*
+	 * makes at least n bytes readable, returns false at the end of the file
+	 */
+	private boolean ensure(int n) throws IOException {
+		if (buf.remaining() >= n)
+			return true;
+		buf.compact();
+		while (buf.position() < n) {
+			if (inflater != null ? !readBlock() : channel.read(buf) < 0)
+				break;
+		}
+		buf.flip();
+		return buf.remaining() >= n;
+	}
+
+	private int readVarint() throws IOException {
+		int v = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			if (!ensure(1))
+				throw new EOFException("Truncated run file");
+			byte b = buf.get();
+			v |= (b & 0x7f) << shift;
+			if (b >= 0)
+				return v;
+		}
+		throw new IOException("Malformed varint in run file");
+	}
+
+	private void readBytes(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			if (!ensure(1))
+				throw new EOFException("Truncated run file");
+			int n = Math.min(len, buf.remaining());
+			buf.get(b, off, n);
+			off += n;
+			len -= n;
+		}
+	}
+
+	public boolean next() throws IOException {
+		if (!ensure(1))
+			return false;
+		int shared = prefixCompression ? readVarint() : 0;
+		int len = readVarint();
+		if (key.length < shared + len) {
+			byte[] bigger = new byte[Math.max(shared + len, key.length * 2)];
+			System.arraycopy(key, 0, bigger, 0, shared);
+			key = bigger;
+		}
+		readBytes(key, shared, len);
+		keyLength = shared + len;
+		count = readVarint();
+		return true;
+	}
+
+	public byte[] keyBytes() {
+		return key;
+	}
+
+	public int keyLength() {
+		return keyLength;
+	}
+
+	public String word() {
+		return Utf8.decode(key, 0, keyLength);
+	}
+
+	public int count() {
+		return count;
+	}
+
+	public void close() throws IOException {
+		in.close();
+		if (inflater != null)
+			inflater.end();
+	}
+}
@@ -0,0 +1,191 @@
+package hs.kwords;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * Writes runs in a compact binary format. The file starts with the magic
+ * bytes "WCR" and a flags byte, followed by one record per word:
+ * 
+ * <pre>
+ * [varint shared prefix length] varint suffix length, suffix bytes, varint count
+ * </pre>
+ * 
+ * The shared prefix length is only present with prefix compression, and
+ * counts how many leading bytes the word has in common with the previous one.
+ * Records go through one large buffer and nothing is allocated per record.
+ *
+ * With block compression every full buffer of records is written as one
+ * block deflated at the fastest level:
+ *
+ * <pre>
+ * int length of the records, int length of the block, deflated records
+ * </pre>
+ *
+ * Sorted records with shared prefixes still compress by half or more, so the
+ * disk has less to write and to read back in the merge.
+ */
+public class BinaryRunWriter implements RunWriter {
+	static final byte[] MAGIC = { 'W', 'C', 'R' };
+	static final int FLAG_PREFIX_COMPRESSION = 1;
+	static final int FLAG_BLOCK_COMPRESSION = 2;
+	static final int BLOCK_HEADER_SIZE = 8;
+	// smaller blocks hardly compress
+	static final int MIN_BLOCK_SIZE = 1 << 14;
+
+	private FileOutputStream out;
+	private FileChannel channel;
+	private ByteBuffer buf;
+	private boolean prefixCompression;
+	private byte[] prev = new byte[64];
+	private int prevLength = 0;
+	private byte[] scratch = new byte[64];
+	private Deflater deflater = null;
+	private ByteBuffer block = null;
+	private long bytesWritten = 0;
+
+	public BinaryRunWriter(File f, int bufferSize, boolean prefixCompression)
+			throws IOException {
+		this(f, bufferSize, prefixCompression, false);
+	}
+
+	public BinaryRunWriter(File f, int bufferSize, boolean prefixCompression,
+			boolean blockCompression) throws IOException {
+		this.out = new FileOutputStream(f);
+		this.channel = out.getChannel();
+		this.buf = ByteBuffer.allocateDirect(Math.max(bufferSize,
+				blockCompression ? MIN_BLOCK_SIZE : 64));
+		this.prefixCompression = prefixCompression;
+		int flags = 0;
+		if (prefixCompression)
+			flags |= FLAG_PREFIX_COMPRESSION;
+		if (blockCompression)
+			flags |= FLAG_BLOCK_COMPRESSION;
+		buf.put(MAGIC);
+		buf.put((byte) flags);
+		if (blockCompression) {
+			// the header stays uncompressed
+			writeFully(buf);
+			deflater = new Deflater(Deflater.BEST_SPEED);
+			block = ByteBuffer.allocateDirect(BLOCK_HEADER_SIZE + buf.capacity()
+					+ buf.capacity() / 8 + 64);
+		}
+	}
+
+	private void writeFully(ByteBuffer b) throws IOException {
+		b.flip();
+		bytesWritten += b.remaining();
+		while (b.hasRemaining()) {
+			channel.write(b);
+		}
+		b.clear();
+	}
+
+	private void flush() throws IOException {
+		if (deflater == null) {
+			writeFully(buf);
+			return;
+		}
+		buf.flip();
+		int length = buf.remaining();
+		if (length == 0) {
+			buf.clear();
+			return;
+		}
+		deflater.reset();
+		deflater.setInput(buf);
+		deflater.finish();
+		block.clear();
+		block.position(BLOCK_HEADER_SIZE);
+		while (!deflater.finished()) {
+			if (!block.hasRemaining()) {
+				ByteBuffer bigger = ByteBuffer.allocateDirect(block.capacity() * 2);
+				block.flip();
+				bigger.put(block);
+				block = bigger;
+			}
+			deflater.deflate(block);
+		}
+		block.putInt(0, length);
+		block.putInt(4, block.position() - BLOCK_HEADER_SIZE);
+		block.flip();
+		while (block.hasRemaining()) {
+			channel.write(block);
+		}
+		bytesWritten += length;
+		buf.clear();
+	}
+
+	private void putVarint(int v) throws IOException {
+		if (buf.remaining() < 5)
+			flush();
+		while ((v & ~0x7f) != 0) {
+			buf.put((byte) ((v & 0x7f) | 0x80));
+			v >>>= 7;
+		}
+		buf.put((byte) v);
+	}
+
+	private void putBytes(byte[] b, int off, int len) throws IOException {
+		if (buf.remaining() < len)
+			flush();
+		// a word larger than the whole buffer goes in pieces
+		while (len > buf.remaining()) {
+			int n = buf.remaining();
+			buf.put(b, off, n);
+			off += n;
+			len -= n;
+			flush();
+		}
+		buf.put(b, off, len);
+	}
+
+	public void write(String word, int count) throws IOException {
+		if (scratch.length < Utf8.maxBytes(word))
+			scratch = new byte[Utf8.maxBytes(word)];
+		int len = Utf8.encode(word, scratch, 0);
+		write(scratch, 0, len, count);
+	}
+
+	public void write(byte[] key, int off, int len, int count)
+			throws IOException {
+		if (prefixCompression) {
+			int shared = 0;
+			int max = Math.min(prevLength, len);
+			while (shared < max && prev[shared] == key[off + shared]) {
+				shared++;
+			}
+			putVarint(shared);
+			putVarint(len - shared);
+			putBytes(key, off + shared, len - shared);
+
+			if (prev.length < len)
+				prev = Arrays.copyOf(prev, Math.max(len, prev.length * 2));
+			System.arraycopy(key, off + shared, prev, shared, len - shared);
+			prevLength = len;
+		} else {
+			putVarint(len);
+			putBytes(key, off, len);
+		}
+		putVarint(count);
+	}
+
+	/**
+	 * Bytes of header and records written so far, before block compression.
+	 */
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	public void close() throws IOException {
+		flush();
+		out.close();
+		if (deflater != null)
+			deflater.end();
+	}
+}
@@ -0,0 +1,80 @@
+package hs.kwords;
+
+/**
+ * A mutable window over a char array. Tokenizers hand out the same slice for
+ * every token, so it is only valid until the next token is read; call
+ * toString() to keep it.
+ */
+public class CharSlice implements CharSequence {
+	char[] buf;
+	int offset;
+	int length;
+
+	public CharSlice() {
+	}
+
+	public CharSlice(char[] buf, int offset, int length) {
+		set(buf, offset, length);
+	}
+
+	void set(char[] buf, int offset, int length) {
+		this.buf = buf;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	public char[] array() {
+		return buf;
+	}
+
+	public int offset() {
+		return offset;
+	}
+
+	public int length() {
+		return length;
+	}
+
+	public char charAt(int index) {
+		if (index < 0 || index >= length)
+			throw new IndexOutOfBoundsException("index: " + index);
+		return buf[offset + index];
+	}
+
+	public CharSequence subSequence(int start, int end) {
+		if (start < 0 || end > length || start > end)
+			throw new IndexOutOfBoundsException("start: " + start + ", end: "
+					+ end);
+		return new String(buf, offset + start, end - start);
+	}
+
+	public boolean contentEquals(CharSequence cs) {
+		if (cs.length() != length)
+			return false;
+		for (int i = 0; i < length; i++) {
+			if (buf[offset + i] != cs.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof CharSlice && contentEquals((CharSlice) o);
+	}
+
+	// same value as String.hashCode() for the same characters
+	@Override
+	public int hashCode() {
+		int h = 0;
+		for (int i = offset, end = offset + length; i < end; i++) {
+			h = 31 * h + buf[i];
+		}
+		return h;
+	}
+
+	@Override
+	public String toString() {
+		return new String(buf, offset, length);
+	}
+}
@@ -0,0 +1,173 @@
+package hs.kwords;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.NoSuchElementException;
+
+/**
+ * Splits the input on whitespace and strips the same punctuation as
+ * EnglishTokenizer, without Scanner or regular expressions. Characters are
+ * read into one reusable buffer and punctuation is squeezed out in place, so
+ * nextSlice() does not allocate at all. Empty tokens (a word made only of
+ * punctuation) are skipped.
+ */
+public class CharTokenizer extends Tokenizer {
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final boolean[] PUNCTUATION = new boolean[128];
+
+	static {
+		for (char c : "+*,-.:;!?(){}'\"/\\".toCharArray()) {
+			PUNCTUATION[c] = true;
+		}
+	}
+
+	private Reader in;
+	private CountingInputStream counter = null;
+	private char[] buf = new char[BUFFER_SIZE];
+	private int pos = 0;
+	private int limit = 0;
+	private boolean eof = false;
+	private boolean pending = false;
+	private CharSlice slice = new CharSlice();
+
+	public CharTokenizer(InputStream in) {
+		super(null);
+		this.counter = new CountingInputStream(in);
+		this.in = new InputStreamReader(counter);
+	}
+
+	public CharTokenizer(Reader in) {
+		super(null);
+		this.in = in;
+	}
+
+	static boolean isPunctuation(char c) {
+		return c < 128 && PUNCTUATION[c];
+	}
+
+	/*
+	 * keep buf[keep, keepEnd) at the start of the buffer and read more input
+	 * behind it. Returns false on end of input.
+	 */
+	private boolean fill(int keep, int keepEnd) throws IOException {
+		int kept = keepEnd - keep;
+		if (kept == buf.length) {
+			char[] bigger = new char[buf.length * 2];
+			System.arraycopy(buf, keep, bigger, 0, kept);
+			buf = bigger;
+		} else if (kept > 0) {
+			System.arraycopy(buf, keep, buf, 0, kept);
+		}
+		pos = kept;
+		limit = kept;
+		if (eof)
+			return false;
+		int n = in.read(buf, limit, buf.length - limit);
+		while (n == 0) {
+			n = in.read(buf, limit, buf.length - limit);
+		}
+		if (n < 0) {
+			eof = true;
+			return false;
+		}
+		limit += n;
+		return true;
+	}
+
+	private boolean readSlice() throws IOException {
+		while (true) {
+			// skip whitespace
+			while (true) {
+				if (pos == limit && !fill(0, 0))
+					return false;
+				if (!Character.isWhitespace(buf[pos]))
+					break;
+				pos++;
+			}
+
+			int start = pos;
+			int w = pos;
+			while (true) {
+				if (pos == limit) {
+					boolean more = fill(start, w);
+					w -= start;
+					start = 0;
+					if (!more)
+						break;
+				}
+				char c = buf[pos];
+				if (Character.isWhitespace(c))
+					break;
+				if (!isPunctuation(c))
+					buf[w++] = c;
+				pos++;
+			}
+
+			if (w > start) {
+				slice.set(buf, start, w - start);
+				return true;
+			}
+			if (pos == limit && eof)
+				return false;
+		}
+	}
+
+	public boolean hasNext() {
+		if (!pending) {
+			try {
+				pending = readSlice();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		return pending;
+	}
+
+	/**
+	 * Returns the next token as a slice of the internal buffer. The slice is
+	 * overwritten by the next call to hasNext() or nextSlice(). Returns null at
+	 * the end of input.
+	 */
+	public CharSlice nextSlice() {
+		if (!hasNext())
+			return null;
+		pending = false;
+		return slice;
+	}
+
+	/**
+	 * Copies the next tokens into batch straight from the buffer.
+	 */
+	@Override
+	public boolean fill(TokenBatch batch) {
+		int before = batch.size();
+		while (!batch.isFull() && hasNext()) {
+			pending = false;
+			batch.add(slice.buf, slice.offset, slice.length);
+		}
+		return batch.size() > before;
+	}
+
+	public String next() {
+		CharSlice s = nextSlice();
+		if (s == null)
+			throw new NoSuchElementException("The stream has no next element");
+		return s.toString();
+	}
+
+	/**
+	 * Bytes read from the input stream so far, or -1 if the tokenizer was
+	 * given a Reader.
+	 */
+	@Override
+	public long getBytesRead() {
+		return counter == null ? -1 : counter.getCount();
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+}
@@ -0,0 +1,190 @@
+package hs.kwords;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Counts many documents in one JVM, which may be gzip compressed. Documents
+ * are counted concurrently on a fixed pool of workers, each into its own
+ * WordCountTable, from which the document's top and bottom K are taken. The
+ * calling thread adds every finished table to the global table as soon as it
+ * completes, so each file is read once and only finished-but-unmerged tables
+ * are held besides the global one.
+ */
+public class CorpusWordCountStrategy implements WordCountStrategy {
+	private List<File> documents;
+	private int threads;
+	private TokenFilter[] filters;
+	private final int K;
+	private WordCountTable global = new WordCountTable();
+	private WordCountMetrics metrics = new WordCountMetrics("corpus");
+	private Map<File, Map<String, List<WordCountPair>>> perDocument = new LinkedHashMap<File, Map<String, List<WordCountPair>>>();
+	private Map<String, List<WordCountPair>> rv = new HashMap<String, List<WordCountPair>>();
+
+	{
+		rv.put("top", new ArrayList<WordCountPair>());
+		rv.put("bottom", new ArrayList<WordCountPair>());
+	}
+
+	public CorpusWordCountStrategy(List<File> documents, int threads, int k,
+			TokenFilter... filters) {
+		this.documents = documents;
+		this.threads = threads;
+		this.K = k;
+		this.filters = filters;
+	}
+
+	/**
+	 * The regular files in a directory sorted by name, or the files listed one
+	 * per line in a file whose name starts with '@', or else the file itself.
+	 */
+	public static List<File> listDocuments(String path) throws IOException {
+		List<File> lst = new ArrayList<File>();
+		if (path.startsWith("@")) {
+			BufferedReader reader = new BufferedReader(new FileReader(
+					path.substring(1)));
+			try {
+				String l;
+				while ((l = reader.readLine()) != null) {
+					if (l.trim().length() > 0)
+						lst.add(new File(l.trim()));
+				}
+			} finally {
+				reader.close();
+			}
+			return lst;
+		}
+		File f = new File(path);
+		if (f.isDirectory()) {
+			File[] files = f.listFiles();
+			Arrays.sort(files);
+			for (File d : files) {
+				if (d.isFile())
+					lst.add(d);
+			}
+		} else {
+			lst.add(f);
+		}
+		return lst;
+	}
+
+	private static class Counted {
+		int document;
+		WordCountTable table;
+	}
+
+	private Counted count(int document) throws IOException {
+		WordCountTable table = new WordCountTable();
+		InputStream in = InputFiles.open(documents.get(document));
+		try {
+			TokenStream ts = new TokenStream(new CharTokenizer(in), filters);
+			TokenBatch batch = new TokenBatch();
+			long tokenCount = 0;
+			while (ts.nextBatch(batch)) {
+				table.incrementAll(batch);
+				tokenCount += batch.size();
+			}
+			metrics.addTokens(tokenCount);
+			metrics.addBytesRead(ts.getBytesRead());
+			metrics.recordTable(table);
+		} finally {
+			in.close();
+		}
+		Counted c = new Counted();
+		c.document = document;
+		c.table = table;
+		return c;
+	}
+
+	public void compute() throws IOException {
+		WordCountMetrics.Phase phase = metrics.beginPhase("count");
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		CompletionService<Counted> completed = new ExecutorCompletionService<Counted>(
+				pool);
+		List<Map<String, List<WordCountPair>>> results = new ArrayList<Map<String, List<WordCountPair>>>();
+		try {
+			for (int i = 0; i < documents.size(); i++) {
+				final int document = i;
+				results.add(null);
+				completed.submit(new Callable<Counted>() {
+					public Counted call() throws IOException {
+						return count(document);
+					}
+				});
+			}
+
+			for (int i = 0; i < documents.size(); i++) {
+				Counted c = completed.take().get();
+				TopKSelector selector = new TopKSelector(K);
+				selector.offerAll(c.table);
+				Map<String, List<WordCountPair>> r = new HashMap<String, List<WordCountPair>>();
+				r.put("top", selector.top());
+				r.put("bottom", selector.bottom());
+				results.set(c.document, r);
+				global.addAll(c.table);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while counting corpus");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+
+		metrics.recordTable(global);
+		phase.end();
+
+		for (int i = 0; i < documents.size(); i++) {
+			perDocument.put(documents.get(i), results.get(i));
+		}
+
+		phase = metrics.beginPhase("select");
+		TopKSelector selector = new TopKSelector(K);
+		selector.offerAll(global);
+		rv.put("top", selector.top());
+		rv.put("bottom", selector.bottom());
+		phase.end();
+		metrics.commit();
+	}
+
+	/**
+	 * Top and bottom K of every document, in the order the documents were
+	 * given.
+	 */
+	public Map<File, Map<String, List<WordCountPair>>> getDocumentResults() {
+		return perDocument;
+	}
+
+	/**
+	 * Counts over all documents.
+	 */
+	public WordCountTable getGlobalTable() {
+		return global;
+	}
+
+	public Map<String, List<WordCountPair>> get() {
+		return rv;
+	}
+
+	public WordCountMetrics getMetrics() {
+		return metrics;
+	}
+}
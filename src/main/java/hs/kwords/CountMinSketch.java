@@ -0,0 +1,124 @@
+package hs.kwords;
+
+/**
+ * Count-Min sketch over words. With width ceil(e / epsilon) and depth
+ * ceil(ln(1 / delta)), an estimate never undercounts and overcounts by more
+ * than epsilon * total() only with probability delta. Memory is fixed by the
+ * two parameters, however many distinct words are added. Counters are
+ * updated conservatively, only rows at the current minimum are raised.
+ */
+public class CountMinSketch {
+	private int width;
+	private int depth;
+	private int[] counters;
+	private long total = 0;
+	private int[] rows;
+
+	public CountMinSketch(double epsilon, double delta) {
+		if (epsilon <= 0 || epsilon >= 1)
+			throw new IllegalArgumentException("epsilon must be in (0, 1): "
+					+ epsilon);
+		if (delta <= 0 || delta >= 1)
+			throw new IllegalArgumentException("delta must be in (0, 1): "
+					+ delta);
+		this.width = (int) Math.ceil(Math.E / epsilon);
+		this.depth = Math.max(1, (int) Math.ceil(Math.log(1 / delta)));
+		this.counters = new int[width * depth];
+		this.rows = new int[depth];
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Sum of all counts added so far.
+	 */
+	public long total() {
+		return total;
+	}
+
+	/**
+	 * 64 bit FNV-1a over the chars of the word with a final mix, the hash
+	 * add() and estimate() take. A token is hashed once and the hash shared
+	 * with SpaceSaving.
+	 */
+	public static long hash(char[] buf, int off, int len) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = off, end = off + len; i < end; i++) {
+			h = (h ^ buf[i]) * 0x100000001b3L;
+		}
+		return mix(h);
+	}
+
+	public static long hash(CharSequence word) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < word.length(); i++) {
+			h = (h ^ word.charAt(i)) * 0x100000001b3L;
+		}
+		return mix(h);
+	}
+
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/*
+	 * fill rows with the counter index of the hash in every row, using double
+	 * hashing over its two 32 bit halves
+	 */
+	private void locate(long h) {
+		int h1 = (int) h;
+		int h2 = (int) (h >>> 32) | 1;
+		for (int r = 0; r < depth; r++) {
+			int c = (h1 + r * h2) & Integer.MAX_VALUE;
+			rows[r] = r * width + c % width;
+		}
+	}
+
+	public void add(CharSequence word, int count) {
+		add(hash(word), count);
+	}
+
+	/**
+	 * Adds count to the word with the given hash().
+	 */
+	public void add(long hash, int count) {
+		locate(hash);
+		int min = Integer.MAX_VALUE;
+		for (int r = 0; r < depth; r++) {
+			min = Math.min(min, counters[rows[r]]);
+		}
+		long target = (long) min + count;
+		int capped = target > Integer.MAX_VALUE ? Integer.MAX_VALUE
+				: (int) target;
+		for (int r = 0; r < depth; r++) {
+			if (counters[rows[r]] < capped)
+				counters[rows[r]] = capped;
+		}
+		total += count;
+	}
+
+	/**
+	 * Upper bound of the count of word.
+	 */
+	public int estimate(CharSequence word) {
+		return estimate(hash(word));
+	}
+
+	public int estimate(long hash) {
+		locate(hash);
+		int min = Integer.MAX_VALUE;
+		for (int r = 0; r < depth; r++) {
+			min = Math.min(min, counters[rows[r]]);
+		}
+		return min;
+	}
+}
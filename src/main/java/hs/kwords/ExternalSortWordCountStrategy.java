@@ -1,369 +1,372 @@
 package hs.kwords;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Scanner;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 public class ExternalSortWordCountStrategy implements WordCountStrategy {
 	private TokenStream ts;
-	private final int K = 5;
-	private Comparator<WordCountPair> wordComparator = new Comparator<WordCountPair>() {
-		public int compare(WordCountPair o1, WordCountPair o2) {
-			return o1.word.compareTo(o2.word);
-		}
-	};
-
-	private Comparator<WordCountPair> countComparator = new Comparator<WordCountPair>() {
-		public int compare(WordCountPair o1, WordCountPair o2) {
-			return o1.count - o2.count;
-		}
-	};
-
-	private File tmpPath = null;
+	private final int K;
+	public static final long DEFAULT_MEMORY_BUDGET = 64L << 20;
+	public static final int DEFAULT_PIPELINE_DEPTH = 2;
+
+	private int fanIn = KWayMerger.DEFAULT_FAN_IN;
+	private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+	private int pipelineDepth = DEFAULT_PIPELINE_DEPTH;
+	private File indexFile = null;
+	private RunFormat runFormat = RunFormat.BINARY;
+	private boolean verbose = false;
+	private WordCountMetrics metrics = new WordCountMetrics("externalsort");
+
+	private File tmpPath = new File("tmp");
+	// the directory of the runs of the count in progress, under tmpPath
+	private File runDir;
 	private Map<String, List<WordCountPair>> rv = new HashMap<String, List<WordCountPair>>();
 
 	{
 		rv.put("top", new ArrayList<WordCountPair>());
 		rv.put("bottom", new ArrayList<WordCountPair>());
-
-		tmpPath = new File("tmp/");
-		if (!tmpPath.exists())
-			tmpPath.mkdir();
 	}
 
 	public ExternalSortWordCountStrategy(TokenStream ts) {
-		this.ts = ts;
+		this(ts, DEFAULT_K);
 	}
 
-	private String fileNameForPart(int partNumber) {
-		String fname = String.format("%05d.part", partNumber);
-		return fname;
+	public ExternalSortWordCountStrategy(TokenStream ts, int k) {
+		this.ts = ts;
+		this.K = k;
 	}
 
-	private File fileForPart(int partNumber) {
-		String fname = fileNameForPart(partNumber);
-		return new File(tmpPath, fname);
+	/*
+	 * for strategies which hand over to this one and report its work as
+	 * their own
+	 */
+	ExternalSortWordCountStrategy(TokenStream ts, int k,
+			WordCountMetrics metrics) {
+		this(ts, k);
+		this.metrics = metrics;
 	}
 
-	private void writeSortedEntries(int partNumber,
-			List<WordCountPair> entries, Comparator<WordCountPair> comparator)
-			throws FileNotFoundException {
-		String fname = fileNameForPart(partNumber);
-		File outFile = new File(tmpPath, fname);
-		PrintWriter writer = new PrintWriter(outFile);
-		Collections.sort(entries, comparator);
-		for (WordCountPair p : entries) {
-			writer.println(String.format("%s\t%d", p.word, p.count));
-		}
-		writer.close();
+	/**
+	 * Sets how many sorted runs are merged at once.
+	 */
+	public void setMergeFanIn(int fanIn) {
+		this.fanIn = fanIn;
 	}
 
-	private WordCountPair readFromString(String s) {
-		String[] entries = s.split("\t");
-		String word = entries[0];
-		int count = Integer.parseInt(entries[1]);
-		return new WordCountPair(word, count);
+	/**
+	 * Sets roughly how many bytes of words and counts phase 1 aggregates in
+	 * memory before it spills a sorted run. The table may hold up to twice as
+	 * much, since its arrays grow by doubling.
+	 */
+	public void setMemoryBudget(long memoryBudget) {
+		this.memoryBudget = memoryBudget;
 	}
 
-	private void write(PrintWriter writer, WordCountPair p) {
-		writer.println(String.format("%s\t%d", p.word, p.count));
+	/**
+	 * Sets how many count tables phase 1 cycles through. With a depth of 1
+	 * tokenizing stops while a full table is sorted and written. With a larger
+	 * depth full tables are handed to depth - 1 background threads, and
+	 * tokenizing goes on in the next free table. The memory budget is shared by
+	 * all tables, so the total stays the same.
+	 */
+	public void setPipelineDepth(int pipelineDepth) {
+		this.pipelineDepth = pipelineDepth;
+	}
 
+	/**
+	 * Also writes the final word counts to a WordIndex at indexFile, which
+	 * answers later queries without counting again.
+	 */
+	public void setIndexFile(File indexFile) {
+		this.indexFile = indexFile;
 	}
 
-	private void merge(int pn1, int pn2, File targetFile,
-			Comparator<WordCountPair> comparator) throws IOException {
-		File f1 = fileForPart(pn1);
-		File f2 = fileForPart(pn2);
-
-		Scanner sc1 = new Scanner(f1);
-		Scanner sc2 = new Scanner(f2);
-		PrintWriter writer = new PrintWriter(targetFile);
-		WordCountPair p1 = null;
-		WordCountPair p2 = null;
-
-		if (sc1.hasNext())
-			p1 = readFromString(sc1.nextLine());
-		else {
-			p1 = null;
-		}
-		if (sc2.hasNext())
-			p2 = readFromString(sc2.nextLine());
-		else {
-			p2 = null;
-		}
+	/**
+	 * Sets the format of the spilled runs and of the final word counts.
+	 */
+	public void setRunFormat(RunFormat runFormat) {
+		this.runFormat = runFormat;
+	}
 
-		while (true) {
-			while (p1 != null && p2 != null && comparator.compare(p1, p2) < 0) {
-				write(writer, p1);
-				if (sc1.hasNext())
-					p1 = readFromString(sc1.nextLine());
-				else {
-					p1 = null;
-				}
-			}
+	/**
+	 * Sets the directory for the sorted runs, "tmp" by default. Each count
+	 * keeps its runs in a directory of its own below it, which is deleted
+	 * when the count is done.
+	 */
+	public void setTmpDir(File tmpDir) {
+		this.tmpPath = tmpDir;
+	}
 
-			while (p1 != null && p2 != null && comparator.compare(p1, p2) >= 0) {
-				write(writer, p2);
-				if (sc2.hasNext())
-					p2 = readFromString(sc2.nextLine());
-				else {
-					p2 = null;
-				}
-			}
+	/**
+	 * Prints the number of runs, merge passes and tokens to stdout.
+	 */
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
 
-			if (p1 == null || p2 == null) {
-				break;
-			}
-		}
+	private String fileNameForPart(int partNumber) {
+		String fname = String.format("%05d.part", partNumber);
+		return fname;
+	}
 
-		if (p1 != null) {
-			// write remaining p1 entries
-			write(writer, p1);
-			while ((sc1.hasNext())) {
-				p1 = readFromString(sc1.nextLine());
-				write(writer, p1);
-			}
-		}
+	private File fileForPart(int partNumber) {
+		String fname = fileNameForPart(partNumber);
+		return new File(runDir, fname);
+	}
 
-		if (p2 != null) {
-			// write remaining p2 entries
-			write(writer, p2);
-			while ((sc2.hasNext())) {
-				p2 = readFromString(sc2.nextLine());
-				write(writer, p2);
+	/*
+	 * runs are sorted in UTF-8 byte order, the order the merge reads them
+	 * in. The table's ids stand in for the words while sorting, and the words
+	 * go to the file straight from its arena.
+	 */
+	private File writeSortedEntries(int partNumber, WordCountTable table)
+			throws IOException {
+		metrics.recordTable(table);
+		RunSpilledEvent event = metrics.beginSpill();
+		int[] ids = table.sortedIds();
+
+		File outFile = fileForPart(partNumber);
+		RunWriter writer = runFormat.openWriter(outFile,
+				KWayMerger.DEFAULT_BUFFER_SIZE);
+		byte[] arena = table.keyArena();
+		try {
+			for (int id : ids) {
+				writer.write(arena, table.keyOffset(id), table.keyLength(id),
+						table.count(id));
 			}
+		} finally {
+			writer.close();
 		}
-		writer.close();
-		sc2.close();
-		sc1.close();
+		metrics.runSpilled(event, partNumber, ids.length, outFile.length(),
+				writer.getBytesWritten());
+		return outFile;
 	}
 
-	public void compute() throws IOException {
-		String WCFINAL = "wordcount.final";
-		String SORT_BY_COUNT_FILE = "sortByCount.final";
-		// phase 1 - read parts, sort by word, merge all parts, calculate counts
-		// phase 2 - read parts, sort by count, merge all parts
-		// phase 3 - read top K and bottom K
-		{
-			/*
-			 * Phase 1 - read parts, sort by word, merge all parts, calculate
-			 * counts
-			 */
-			int M = 10000;
-			List<WordCountPair> entries = new ArrayList<WordCountPair>();
-
-			int tokenCount = 0;
-			int numberOfParts = 0;
-			while (ts.hasNext()) {
-				String token = ts.next();
-				// System.out.println(token);
-				WordCountPair e = new WordCountPair(token, 1);
-				entries.add(e);
-				tokenCount++;
-				// after every M words, create a new file and spill to disk
-				if (entries.size() == M) {
-					numberOfParts++;
-					writeSortedEntries(numberOfParts, entries, wordComparator);
-					entries.clear();
+	/*
+	 * phase 1 with spilling moved off the tokenizing thread. Tables cycle
+	 * through a bounded queue: the tokenizer fills one, hands it to a spill
+	 * thread and blocks only when no empty table is left.
+	 */
+	private long countPipelined(List<File> parts, WordCountTable first)
+			throws IOException {
+		final long budget = Math.max(1, memoryBudget / pipelineDepth);
+		final BlockingQueue<WordCountTable> free = new ArrayBlockingQueue<WordCountTable>(
+				pipelineDepth);
+		for (int i = 1; i < pipelineDepth; i++) {
+			free.add(new WordCountTable());
+		}
+		ExecutorService spillers = Executors.newFixedThreadPool(
+				pipelineDepth - 1, new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "spill");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		List<Future<File>> spills = new ArrayList<Future<File>>();
+		long tokenCount = 0;
+		try {
+			WordCountTable table = first;
+			TokenBatch batch = new TokenBatch();
+			while (ts.nextBatch(batch)) {
+				table.incrementAll(batch);
+				tokenCount += batch.size();
+				if (table.bytesUsed() >= budget) {
+					spills.add(spill(spillers, free, table, parts.size()
+							+ spills.size() + 1));
+					table = free.take();
 				}
 			}
-
-			// write final semi-filled block
-			if (entries.size() > 0) {
-				numberOfParts++;
-				writeSortedEntries(numberOfParts, entries, wordComparator);
+			if (table.size() > 0) {
+				spills.add(spill(spillers, free, table, parts.size()
+						+ spills.size() + 1));
 			}
+			for (Future<File> f : spills) {
+				parts.add(f.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while spilling");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		} finally {
+			spillers.shutdownNow();
+		}
+		return tokenCount;
+	}
 
-			// merge all files
-			// pick two files at a time and merge them
-			int partsToProcess = numberOfParts;
-			while (partsToProcess > 1) {
-				System.out.println("Parts to process: " + partsToProcess);
-				int i = 1;
-				int numPairs = partsToProcess / 2;
-				System.out.println("Num pairs: " + numPairs);
-				for (; i <= numPairs; i++) {
-					int part1 = 2 * i - 1;
-					int part2 = 2 * i;
-					String mergedFile = String.format("%05d.merge", i);
-					File targetFile = new File(tmpPath, mergedFile);
-					System.out.println(String.format("part1: %d, part2: %d",
-							part1, part2));
-
-					merge(part1, part2, targetFile, wordComparator);
-
-					// delete intermediary files
-					File part1File = fileForPart(part1);
-					File part2File = fileForPart(part2);
-					part1File.delete();
-					part2File.delete();
-					File newPart = fileForPart(i);
-					targetFile.renameTo(newPart);
-				}
-
-				if (partsToProcess % 2 == 1) {
-					System.out.println("Odd one out! i = " + i);
-					File targetFile = fileForPart(partsToProcess);
-					File newPart = fileForPart(i);
-					targetFile.renameTo(newPart);
-					partsToProcess = i;
-				} else {
-					partsToProcess = numPairs;
+	private Future<File> spill(ExecutorService spillers,
+			final BlockingQueue<WordCountTable> free,
+			final WordCountTable table, final int partNumber) {
+		return spillers.submit(new Callable<File>() {
+			public File call() throws IOException {
+				try {
+					return writeSortedEntries(partNumber, table);
+				} finally {
+					// hand the table back even on failure, or the tokenizer
+					// would wait for it forever
+					table.clear();
+					free.add(table);
 				}
 			}
+		});
+	}
 
-			System.out.println("Token Count: " + tokenCount);
-
-			// calculate word counts
-			File finalPartFile = new File(tmpPath, fileNameForPart(1));
-			Scanner sc = new Scanner(finalPartFile);
-			WordCountPair pfirst = null;
-			WordCountPair pnext = null;
-
-			File finalWordCountFile = new File(tmpPath, WCFINAL);
-			PrintWriter writer = new PrintWriter(finalWordCountFile);
-			int count = 0;
-			if (sc.hasNext()) {
-				String l = sc.nextLine();
-				pfirst = readFromString(l);
-				count++;
-			}
-			do {
-				if (sc.hasNext()) {
-					String l = sc.nextLine();
-					pnext = readFromString(l);
-					if (wordComparator.compare(pfirst, pnext) == 0) {
-						count++;
-					} else {
-						// write word,count
-						write(writer, new WordCountPair(pfirst.word, count));
-						pfirst = pnext;
-						count = 1;
-					}
-				} else {
-					write(writer, new WordCountPair(pfirst.word, count));
-					pnext = null;
-				}
-			} while (pnext != null);
+	public void compute() throws IOException {
+		compute(null);
+	}
 
-			writer.close();
-			sc.close();
+	/*
+	 * phase 1 - count words in memory, spilling a sorted run of (word, count)
+	 * whenever the table outgrows the memory budget. counted holds the counts
+	 * of tokens which were taken from the stream before. It becomes the first
+	 * run and is then reused for counting.
+	 */
+	private List<File> countRuns(WordCountTable counted) throws IOException {
+		WordCountMetrics.Phase phase = metrics.beginPhase("count");
+		List<File> parts = new ArrayList<File>();
+		WordCountTable table = counted;
+		if (table == null) {
+			table = new WordCountTable();
+		} else if (table.size() > 0) {
+			parts.add(writeSortedEntries(1, table));
+			table.clear();
 		}
-
-		/*
-		 * Phase 2 - read parts, sort by word, merge all parts, calculate counts
-		 */
-
-		{
-			int M = 100;
-			List<WordCountPair> entries = new ArrayList<WordCountPair>();
-			File finalWordCountFile = new File(tmpPath, WCFINAL);
-			Scanner scfinal = new Scanner(finalWordCountFile);
-			int numberOfParts = 0;
-			while (scfinal.hasNext()) {
-				String l = scfinal.nextLine();
-				WordCountPair e = readFromString(l);
-				entries.add(e);
-				// after every M words, create a new file and spill to disk
-				if (entries.size() == M) {
-					numberOfParts++;
-					writeSortedEntries(numberOfParts, entries, countComparator);
-					entries.clear();
+		long tokenCount = 0;
+		if (pipelineDepth <= 1) {
+			TokenBatch batch = new TokenBatch();
+			while (ts.nextBatch(batch)) {
+				table.incrementAll(batch);
+				tokenCount += batch.size();
+				if (table.bytesUsed() >= memoryBudget) {
+					parts.add(writeSortedEntries(parts.size() + 1, table));
+					table.clear();
 				}
 			}
-			scfinal.close();
 
-			// write final semi-filled block
-			if (entries.size() > 0) {
-				numberOfParts++;
-				writeSortedEntries(numberOfParts, entries, countComparator);
+			// write final semi-filled table
+			if (table.size() > 0) {
+				parts.add(writeSortedEntries(parts.size() + 1, table));
 			}
+		} else {
+			tokenCount = countPipelined(parts, table);
+		}
+		metrics.addTokens(tokenCount);
+		metrics.addBytesRead(ts.getBytesRead());
+		phase.end();
 
-			// merge all files
-			// pick two files at a time and merge them
-			int partsToProcess = numberOfParts;
-			while (partsToProcess > 1) {
-				System.out.println("Parts to process: " + partsToProcess);
-				int i = 1;
-				int numPairs = partsToProcess / 2;
-				System.out.println("Num pairs: " + numPairs);
-				for (; i <= numPairs; i++) {
-					int part1 = 2 * i - 1;
-					int part2 = 2 * i;
-					String mergedFile = String.format("%05d.merge", i);
-					File targetFile = new File(tmpPath, mergedFile);
-					System.out.println(String.format("part1: %d, part2: %d",
-							part1, part2));
-
-					merge(part1, part2, targetFile, countComparator);
-
-					// delete intermediary files
-					File part1File = fileForPart(part1);
-					File part2File = fileForPart(part2);
-					part1File.delete();
-					part2File.delete();
-					File newPart = fileForPart(i);
-					targetFile.renameTo(newPart);
-				}
+		if (verbose) {
+			System.out.println("Parts to process: " + parts.size());
+			System.out.println("Token Count: " + tokenCount);
+		}
+		return parts;
+	}
 
-				if (partsToProcess % 2 == 1) {
-					System.out.println("Odd one out! i = " + i);
-					File targetFile = fileForPart(partsToProcess);
-					File newPart = fileForPart(i);
-					targetFile.renameTo(newPart);
-					partsToProcess = i;
-				} else {
-					partsToProcess = numPairs;
-				}
-			}
+	/*
+	 * merge all parts, fanIn at a time, adding up the counts of equal words
+	 */
+	private void merge(List<File> parts, RunWriter out) throws IOException {
+		WordCountMetrics.Phase phase = metrics.beginPhase("merge");
+		KWayMerger merger = new KWayMerger(runDir, runFormat, fanIn,
+				KWayMerger.DEFAULT_BUFFER_SIZE);
+		merger.merge(parts, out);
+		metrics.setMergePasses(merger.getPasses());
+		phase.end();
+
+		if (verbose)
+			System.out.println("Merge passes: " + merger.getPasses());
+	}
+
+	/**
+	 * Counts the stream and merges the counts into out, sorted by the UTF-8
+	 * bytes of the words, instead of selecting the top and bottom K. out is
+	 * closed.
+	 */
+	public void computeInto(RunWriter out) throws IOException {
+		runDir = KWayMerger.createRunDir(tmpPath, "wordcount");
+		try {
+			merge(countRuns(null), out);
+		} finally {
+			KWayMerger.deleteTree(runDir);
+		}
+		metrics.commit();
+	}
 
-			File finalFile = new File(tmpPath, SORT_BY_COUNT_FILE);
-			File targetFile = fileForPart(1);
-			targetFile.renameTo(finalFile);
+	void compute(WordCountTable counted) throws IOException {
+		runDir = KWayMerger.createRunDir(tmpPath, "wordcount");
+		try {
+			countAndSelect(counted);
+		} finally {
+			KWayMerger.deleteTree(runDir);
 		}
+		metrics.commit();
+	}
+
+	private void countAndSelect(WordCountTable counted) throws IOException {
+		String WCFINAL = "wordcount.final";
+		// phase 1 - count words in memory, spill sorted parts, merge all parts
+		// phase 2 - read top K and bottom K in one pass over the counts
+		merge(countRuns(counted), runFormat.openWriter(new File(runDir,
+				WCFINAL), KWayMerger.DEFAULT_BUFFER_SIZE));
 
 		/*
-		 * Phase 3 - read top K and bottom K frequent words
+		 * Phase 2 - read top K and bottom K frequent words, and build the
+		 * index if one was asked for
 		 */
 		{
-			File finalFile = new File(tmpPath, SORT_BY_COUNT_FILE);
-			Scanner sc = new Scanner(finalFile);
-
-			LinkedList<WordCountPair> botList = new LinkedList<WordCountPair>();
-			LinkedList<WordCountPair> topList = new LinkedList<WordCountPair>();
-			while (sc.hasNext()) {
-				String l = sc.nextLine();
-				WordCountPair e = readFromString(l);
-				if (botList.size() < K) {
-					botList.addLast(e);
-				}
-
-				if (topList.size() < K) {
-					topList.addLast(e);
-				} else {
-					topList.removeFirst();
-					topList.addLast(e);
+			WordCountMetrics.Phase phase = metrics.beginPhase("select");
+			File finalWordCountFile = new File(runDir, WCFINAL);
+			RunReader reader = runFormat.openReader(finalWordCountFile,
+					KWayMerger.DEFAULT_BUFFER_SIZE);
+			TopKSelector selector = new TopKSelector(K);
+			WordIndexWriter indexWriter = null;
+			boolean done = false;
+			try {
+				if (indexFile != null)
+					indexWriter = new WordIndexWriter(indexFile);
+				while (reader.next()) {
+					selector.offer(reader.keyBytes(), 0, reader.keyLength(),
+							reader.count());
+					if (indexWriter != null)
+						indexWriter.add(reader.keyBytes(), 0,
+								reader.keyLength(), reader.count());
 				}
-
+				if (indexWriter != null)
+					indexWriter.close();
+				done = true;
+			} finally {
+				reader.close();
+				// a failed close() has cleaned up already
+				if (!done && indexWriter != null)
+					indexWriter.abort();
 			}
-			sc.close();
-
-			rv.put("top", topList);
-			rv.put("bottom", botList);
 
+			rv.put("top", selector.top());
+			rv.put("bottom", selector.bottom());
+			phase.end();
 		}
 	}
 
 	public Map<String, List<WordCountPair>> get() {
 		return rv;
 	}
-}
\ No newline at end of file
+
+	public WordCountMetrics getMetrics() {
+		return metrics;
+	}
+}
@@ -0,0 +1,48 @@
+package hs.kwords;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the bytes [start, end) of a file channel with positional reads, so
+ * several streams can share one channel.
+ */
+public class FileRangeInputStream extends InputStream {
+	private FileChannel channel;
+	private long pos;
+	private long end;
+
+	public FileRangeInputStream(FileChannel channel, long start, long end) {
+		this.channel = channel;
+		this.pos = start;
+		this.end = end;
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		int n = read(b, 0, 1);
+		return n <= 0 ? -1 : b[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		if (pos >= end)
+			return -1;
+		int n = (int) Math.min(len, end - pos);
+		n = channel.read(ByteBuffer.wrap(b, off, n), pos);
+		if (n < 0)
+			return -1;
+		pos += n;
+		return n;
+	}
+
+	@Override
+	public int available() {
+		return (int) Math.min(Integer.MAX_VALUE, end - pos);
+	}
+}
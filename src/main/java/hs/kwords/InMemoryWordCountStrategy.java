@@ -1,15 +1,14 @@
 package hs.kwords;
 
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 public class InMemoryWordCountStrategy implements WordCountStrategy {
 	private TokenStream ts;
-	private final int K = 5;
+	private final int K;
+	private WordCountMetrics metrics = new WordCountMetrics("inmemory");
 	Map<String, List<WordCountPair>> rv = new HashMap<String, List<WordCountPair>>();
 
 	{
@@ -18,54 +17,43 @@ public class InMemoryWordCountStrategy implements WordCountStrategy {
 	}
 
 	public InMemoryWordCountStrategy(TokenStream ts) {
+		this(ts, DEFAULT_K);
+	}
+
+	public InMemoryWordCountStrategy(TokenStream ts, int k) {
 		this.ts = ts;
+		this.K = k;
 	}
 
 	public void compute() {
-		Map<String, Integer> map = new HashMap<String, Integer>();
-		while (ts.hasNext()) {
-			String token = ts.next();
-			// System.out.println(token);
-			int count = 1;
-			if (map.containsKey(token)) {
-				count += map.get(token);
-			}
-			map.put(token, count);
-		}
-
-		WordCountPair entries[] = new WordCountPair[map.size()];
-
-		int c = 0;
-		for (String k : map.keySet()) {
-			entries[c] = new WordCountPair(k, map.get(k));
-			c++;
-		}
-
-		Comparator<WordCountPair> comparator = new Comparator<WordCountPair>() {
-			public int compare(WordCountPair o1, WordCountPair o2) {
-				return o1.count - o2.count;
-			}
-		};
-
-		Arrays.sort(entries, comparator);
-
-		List<WordCountPair> bottom = new ArrayList<WordCountPair>();
-		for (int i = 0; i < K && i < entries.length; i++) {
-			WordCountPair e = entries[i];
-			bottom.add(e);
-		}
-
-		List<WordCountPair> top = new ArrayList<WordCountPair>();
-		for (int i = 0; i < K && entries.length - i >= 0; i++) {
-			WordCountPair e = entries[entries.length - i - 1];
-			top.add(e);
+		WordCountMetrics.Phase phase = metrics.beginPhase("count");
+		WordCountTable table = new WordCountTable();
+		TokenBatch batch = new TokenBatch();
+		long tokenCount = 0;
+		while (ts.nextBatch(batch)) {
+			table.incrementAll(batch);
+			tokenCount += batch.size();
 		}
-
-		rv.put("top", top);
-		rv.put("bottom", bottom);
+		metrics.addTokens(tokenCount);
+		metrics.addBytesRead(ts.getBytesRead());
+		metrics.recordTable(table);
+		phase.end();
+
+		phase = metrics.beginPhase("select");
+		TopKSelector selector = new TopKSelector(K);
+		selector.offerAll(table);
+
+		rv.put("top", selector.top());
+		rv.put("bottom", selector.bottom());
+		phase.end();
+		metrics.commit();
 	}
 
 	public Map<String, List<WordCountPair>> get() {
 		return rv;
 	}
-}
\ No newline at end of file
+
+	public WordCountMetrics getMetrics() {
+		return metrics;
+	}
+}
@@ -0,0 +1,274 @@
+package hs.kwords;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Word counting for append-only input. After every run the counts and the
+ * number of bytes consumed are saved next to each other, and the next run only
+ * tokenizes the bytes appended since. Input is consumed up to the last
+ * whitespace byte, so a word that is still being written is left for the next
+ * run. If the input became shorter than the saved offset, or is not the file
+ * the state was saved for, or the filters differ, it is counted from the
+ * start.
+ *
+ * The state is a properties file holding the offset, the canonical path and
+ * file key of the input and the toString() of every filter, plus a binary
+ * run file with the counts, named after it with a ".counts" suffix and a
+ * generation number.
+ */
+public class IncrementalWordCountStrategy implements WordCountStrategy {
+	private static final String OFFSET = "offset";
+	private static final String TOKENS = "tokens";
+	private static final String GENERATION = "generation";
+	private static final String FILE = "file";
+	private static final String FILE_KEY = "fileKey";
+	private static final String FILTERS = "filters";
+
+	private File input;
+	private File stateFile;
+	private long generation = 0;
+	private TokenFilter[] filters;
+	private final int K;
+	private WordCountTable table = new WordCountTable();
+	private long offset = 0;
+	private long tokenCount = 0;
+	private long bytesRead = 0;
+	private WordCountMetrics metrics = new WordCountMetrics("incremental");
+	private Map<String, List<WordCountPair>> rv = new HashMap<String, List<WordCountPair>>();
+
+	{
+		rv.put("top", new ArrayList<WordCountPair>());
+		rv.put("bottom", new ArrayList<WordCountPair>());
+	}
+
+	public IncrementalWordCountStrategy(File input, File stateFile, int k,
+			TokenFilter... filters) {
+		this.input = input;
+		this.stateFile = stateFile;
+		this.K = k;
+		this.filters = filters;
+	}
+
+	/**
+	 * Number of bytes of the input tokenized by the last compute() call.
+	 */
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+	/**
+	 * Number of tokens counted over all runs.
+	 */
+	public long getTokenCount() {
+		return tokenCount;
+	}
+
+	public int count(String word) {
+		return table.get(word);
+	}
+
+	private File countsFile(long generation) {
+		return new File(stateFile.getPath() + ".counts." + generation);
+	}
+
+	/*
+	 * what tells this input and filter chain apart from others, which must
+	 * match the saved state for it to be resumed
+	 */
+	private Properties identity() throws IOException {
+		Properties props = new Properties();
+		props.setProperty(FILE, input.getCanonicalPath());
+		// the inode on Unix, so a rotated log is counted from the start
+		props.setProperty(FILE_KEY, String.valueOf(Files.readAttributes(
+				input.toPath(), BasicFileAttributes.class).fileKey()));
+		props.setProperty(FILTERS, Arrays.toString(filters));
+		return props;
+	}
+
+	private void loadState(long inputLength) throws IOException {
+		if (!stateFile.exists())
+			return;
+		Properties props = new Properties();
+		InputStream in = new FileInputStream(stateFile);
+		try {
+			props.load(in);
+		} finally {
+			in.close();
+		}
+		// the next save goes past any generation seen, even a discarded one
+		generation = Long.parseLong(props.getProperty(GENERATION, "0"));
+		for (Map.Entry<Object, Object> e : identity().entrySet()) {
+			if (!e.getValue().equals(props.get(e.getKey())))
+				return;
+		}
+		long savedOffset = Long.parseLong(props.getProperty(OFFSET, "0"));
+		File countsFile = countsFile(generation);
+		if (savedOffset > inputLength || !countsFile.exists()) {
+			// truncated or replaced, start over
+			return;
+		}
+
+		RunReader reader = RunFormat.BINARY.openReader(countsFile,
+				KWayMerger.DEFAULT_BUFFER_SIZE);
+		try {
+			while (reader.next()) {
+				table.add(reader.keyBytes(), 0, reader.keyLength(),
+						reader.count());
+			}
+		} finally {
+			reader.close();
+		}
+		offset = savedOffset;
+		tokenCount = Long.parseLong(props.getProperty(TOKENS, "0"));
+	}
+
+	private static void sync(File f) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(f, "rw");
+		try {
+			raf.getFD().sync();
+		} finally {
+			raf.close();
+		}
+	}
+
+	/*
+	 * the counts go to a file of the next generation, which no saved state
+	 * points at yet, and the properties naming it replace the old ones by an
+	 * atomic move, so a crash leaves either the old or the new state behind
+	 */
+	private void saveState() throws IOException {
+		File dir = stateFile.getAbsoluteFile().getParentFile();
+		if (dir != null && !dir.exists())
+			dir.mkdirs();
+
+		long next = generation + 1;
+		File countsFile = countsFile(next);
+		RunWriter writer = RunFormat.BINARY.openWriter(countsFile,
+				KWayMerger.DEFAULT_BUFFER_SIZE);
+		try {
+			for (int id = 0; id < table.size(); id++) {
+				writer.write(table.keyArena(), table.keyOffset(id),
+						table.keyLength(id), table.count(id));
+			}
+		} finally {
+			writer.close();
+		}
+		sync(countsFile);
+
+		Properties props = identity();
+		props.setProperty(GENERATION, Long.toString(next));
+		props.setProperty(OFFSET, Long.toString(offset));
+		props.setProperty(TOKENS, Long.toString(tokenCount));
+		File tmpState = new File(stateFile.getPath() + ".tmp");
+		FileOutputStream out = new FileOutputStream(tmpState);
+		try {
+			props.store(out, "incremental word count of " + input.getPath());
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+		Files.move(tmpState.toPath(), stateFile.toPath(),
+				StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+
+		countsFile(generation).delete();
+		generation = next;
+	}
+
+	/*
+	 * position just after the last whitespace byte in [from, to), or from if
+	 * there is none
+	 */
+	private static long endOfLastWord(FileChannel channel, long from, long to)
+			throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(4096);
+		long end = to;
+		while (end > from) {
+			long start = Math.max(from, end - buf.capacity());
+			buf.clear();
+			buf.limit((int) (end - start));
+			int n = 0;
+			while (buf.hasRemaining()) {
+				int r = channel.read(buf, start + n);
+				if (r < 0)
+					break;
+				n += r;
+			}
+			for (int i = n - 1; i >= 0; i--) {
+				if (Utf8.isWhitespace(buf.get(i)))
+					return start + i + 1;
+			}
+			end = start;
+		}
+		return from;
+	}
+
+	public void compute() throws IOException {
+		WordCountMetrics.Phase phase;
+		RandomAccessFile raf = new RandomAccessFile(input, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			long length = channel.size();
+			phase = metrics.beginPhase("load");
+			loadState(length);
+			phase.end();
+
+			phase = metrics.beginPhase("count");
+			long end = endOfLastWord(channel, offset, length);
+			bytesRead = end - offset;
+			if (end > offset) {
+				Tokenizer tokenizer = new CharTokenizer(
+						new FileRangeInputStream(channel, offset, end));
+				TokenStream ts = new TokenStream(tokenizer, filters);
+				TokenBatch batch = new TokenBatch();
+				long before = tokenCount;
+				while (ts.nextBatch(batch)) {
+					table.incrementAll(batch);
+					tokenCount += batch.size();
+				}
+				metrics.addTokens(tokenCount - before);
+				metrics.addBytesRead(bytesRead);
+				offset = end;
+			}
+			metrics.recordTable(table);
+			phase.end();
+		} finally {
+			raf.close();
+		}
+		phase = metrics.beginPhase("save");
+		saveState();
+		phase.end();
+
+		phase = metrics.beginPhase("select");
+		TopKSelector selector = new TopKSelector(K);
+		selector.offerAll(table);
+		rv.put("top", selector.top());
+		rv.put("bottom", selector.bottom());
+		phase.end();
+		metrics.commit();
+	}
+
+	public Map<String, List<WordCountPair>> get() {
+		return rv;
+	}
+
+	public WordCountMetrics getMetrics() {
+		return metrics;
+	}
+}
@@ -0,0 +1,55 @@
+package hs.kwords;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Opens input files, decompressing those whose name ends with ".gz" on the
+ * fly.
+ */
+public class InputFiles {
+	// large enough that the inflater is not starved by small reads
+	private static final int GZIP_BUFFER_SIZE = 1 << 16;
+
+	public static boolean isGzip(File f) {
+		return f.getName().endsWith(".gz");
+	}
+
+	public static InputStream open(File f) throws IOException {
+		InputStream in = new FileInputStream(f);
+		if (!isGzip(f))
+			return in;
+		try {
+			return new GZIPInputStream(in, GZIP_BUFFER_SIZE);
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Maps the file and tokenizes its bytes, unless it is compressed or too
+	 * large for one mapping.
+	 */
+	public static Tokenizer openTokenizer(File f) throws IOException {
+		if (isGzip(f))
+			return new CharTokenizer(open(f));
+		RandomAccessFile file = new RandomAccessFile(f, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			if (channel.size() <= Integer.MAX_VALUE) {
+				// the mapping stays valid after the file is closed
+				return new Utf8Tokenizer(channel.map(
+						FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+			}
+		} finally {
+			file.close();
+		}
+		return new CharTokenizer(new FileInputStream(f));
+	}
+}
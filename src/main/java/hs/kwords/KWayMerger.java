@@ -0,0 +1,165 @@
+package hs.kwords;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Merges sorted runs of (word, count) records with a priority queue over the
+ * heads of up to fanIn open runs at a time. Records for the same word are
+ * combined by adding their counts, so the output has one record per word.
+ * With more runs than fanIn, groups of fanIn runs are merged into
+ * intermediate runs first, so the data is rewritten ceil(log_fanIn(runs))
+ * times in total.
+ */
+public class KWayMerger {
+	public static final int DEFAULT_FAN_IN = 128;
+	public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+	private static final Comparator<RunReader> HEAD_ORDER = new Comparator<RunReader>() {
+		public int compare(RunReader r1, RunReader r2) {
+			return Utf8.compare(r1.keyBytes(), 0, r1.keyLength(),
+					r2.keyBytes(), 0, r2.keyLength());
+		}
+	};
+
+	private File tmpPath;
+	private RunFormat format;
+	private int fanIn;
+	private int bufferSize;
+	private int passes = 0;
+	private int intermediateRuns = 0;
+
+	public KWayMerger(File tmpPath) {
+		this(tmpPath, RunFormat.BINARY, DEFAULT_FAN_IN, DEFAULT_BUFFER_SIZE);
+	}
+
+	public KWayMerger(File tmpPath, RunFormat format, int fanIn,
+			int bufferSize) {
+		if (fanIn < 2)
+			throw new IllegalArgumentException("fan-in must be at least 2: "
+					+ fanIn);
+		this.tmpPath = tmpPath;
+		this.format = format;
+		this.fanIn = fanIn;
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * Creates a fresh directory for the runs of one count under parent, so
+	 * that counts running at the same time never share run files.
+	 */
+	static File createRunDir(File parent, String prefix) throws IOException {
+		parent.mkdirs();
+		return Files.createTempDirectory(parent.toPath(), prefix).toFile();
+	}
+
+	/**
+	 * Deletes a directory and everything in it.
+	 */
+	static void deleteTree(File f) {
+		File[] children = f.listFiles();
+		if (children != null) {
+			for (File c : children) {
+				deleteTree(c);
+			}
+		}
+		f.delete();
+	}
+
+	/**
+	 * Number of times the data was rewritten by the last merge() call.
+	 */
+	public int getPasses() {
+		return passes;
+	}
+
+	/**
+	 * Merges all runs into target. The input runs are deleted.
+	 */
+	public void merge(List<File> runs, File target) throws IOException {
+		merge(runs, format.openWriter(target, bufferSize));
+	}
+
+	/**
+	 * Merges all runs into target, which is closed at the end. The input runs
+	 * are deleted.
+	 */
+	public void merge(List<File> runs, RunSink target) throws IOException {
+		passes = 0;
+		List<File> pending = new ArrayList<File>(runs);
+		while (pending.size() > fanIn) {
+			List<File> next = new ArrayList<File>();
+			for (int i = 0; i < pending.size(); i += fanIn) {
+				List<File> group = pending.subList(i,
+						Math.min(i + fanIn, pending.size()));
+				if (group.size() == 1) {
+					next.add(group.get(0));
+					continue;
+				}
+				intermediateRuns++;
+				File out = new File(tmpPath, String.format("%05d.merge",
+						intermediateRuns));
+				mergeGroup(group, format.openWriter(out, bufferSize));
+				next.add(out);
+			}
+			pending = next;
+			passes++;
+		}
+		mergeGroup(pending, target);
+		passes++;
+	}
+
+	private void mergeGroup(List<File> group, RunSink writer)
+			throws IOException {
+		PriorityQueue<RunReader> heads = new PriorityQueue<RunReader>(
+				Math.max(1, group.size()), HEAD_ORDER);
+		List<RunReader> readers = new ArrayList<RunReader>();
+		try {
+			for (File f : group) {
+				RunReader r = format.openReader(f, bufferSize);
+				readers.add(r);
+				if (r.next())
+					heads.add(r);
+			}
+
+			// the word being combined, copied out of its reader
+			byte[] word = new byte[64];
+			int wordLength = -1;
+			int count = 0;
+			while (!heads.isEmpty()) {
+				RunReader r = heads.poll();
+				byte[] key = r.keyBytes();
+				int keyLength = r.keyLength();
+				if (wordLength >= 0
+						&& Utf8.compare(word, 0, wordLength, key, 0, keyLength) == 0) {
+					count += r.count();
+				} else {
+					if (wordLength >= 0)
+						writer.write(word, 0, wordLength, count);
+					if (word.length < keyLength)
+						word = new byte[Math.max(keyLength, word.length * 2)];
+					System.arraycopy(key, 0, word, 0, keyLength);
+					wordLength = keyLength;
+					count = r.count();
+				}
+				if (r.next())
+					heads.add(r);
+			}
+			if (wordLength >= 0)
+				writer.write(word, 0, wordLength, count);
+		} finally {
+			writer.close();
+			for (RunReader r : readers) {
+				r.close();
+			}
+		}
+		for (File f : group) {
+			f.delete();
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package hs.kwords;
+
+import java.util.Arrays;
+
+/**
+ * An open addressing hash table from long keys to int counts, held in one
+ * long array and one int array, so that an entry costs twelve bytes per slot
+ * and no objects. Key 0 marks an empty slot and can not be stored.
+ */
+public class LongIntTable {
+	private static final int DEFAULT_CAPACITY = 1 << 10;
+
+	private long[] keys;
+	private int[] counts;
+	private int mask;
+	private int size = 0;
+
+	public LongIntTable() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public LongIntTable(int expectedKeys) {
+		int capacity = Integer.highestOneBit(Math.max(16, expectedKeys) * 2 - 1) << 1;
+		keys = new long[capacity];
+		counts = new int[capacity];
+		mask = capacity - 1;
+	}
+
+	private static int hash(long key) {
+		key *= 0x9e3779b97f4a7c15L;
+		return (int) (key ^ (key >>> 32));
+	}
+
+	private int findSlot(long key) {
+		int slot = hash(key) & mask;
+		while (keys[slot] != 0 && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Adds delta to the count of key and returns the new count.
+	 */
+	public int add(long key, int delta) {
+		if (key == 0)
+			throw new IllegalArgumentException("Key 0 can not be stored");
+		int slot = findSlot(key);
+		if (keys[slot] == 0) {
+			keys[slot] = key;
+			counts[slot] = delta;
+			if (++size * 2 > keys.length)
+				rehash();
+			return delta;
+		}
+		return counts[slot] += delta;
+	}
+
+	public int get(long key) {
+		int slot = findSlot(key);
+		return keys[slot] == 0 ? 0 : counts[slot];
+	}
+
+	private void rehash() {
+		long[] oldKeys = keys;
+		int[] oldCounts = counts;
+		keys = new long[oldKeys.length * 2];
+		counts = new int[oldKeys.length * 2];
+		mask = keys.length - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != 0) {
+				int slot = findSlot(oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				counts[slot] = oldCounts[i];
+			}
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Number of slots. Slot i holds keyAt(i) with countAt(i), or nothing if
+	 * keyAt(i) is 0.
+	 */
+	public int capacity() {
+		return keys.length;
+	}
+
+	public long keyAt(int slot) {
+		return keys[slot];
+	}
+
+	public int countAt(int slot) {
+		return counts[slot];
+	}
+
+	/**
+	 * The keys in ascending order.
+	 */
+	public long[] sortedKeys() {
+		long[] sorted = new long[size];
+		int n = 0;
+		for (long key : keys) {
+			if (key != 0)
+				sorted[n++] = key;
+		}
+		Arrays.sort(sorted);
+		return sorted;
+	}
+
+	/**
+	 * Approximate number of bytes held by this table.
+	 */
+	public long memoryFootprint() {
+		return 12L * keys.length;
+	}
+
+	/**
+	 * Approximate number of bytes needed for the keys stored right now, at
+	 * two slots per key. Unlike memoryFootprint() this drops back to zero
+	 * after clear().
+	 */
+	public long bytesUsed() {
+		return 24L * size;
+	}
+
+	public void clear() {
+		Arrays.fill(keys, 0);
+		size = 0;
+	}
+}
@@ -1,10 +1,40 @@
 package hs.kwords;
 
-public class LowerCaseFilter implements TokenFilter {
+public class LowerCaseFilter implements BatchFilter {
 	public String filter(String w) {
 		if (w == null)
 			return w;
 		else
 			return w.toLowerCase();
 	}
-}
\ No newline at end of file
+
+	/*
+	 * lowercases buf[off, off + len) in place while it is ASCII. Returns false
+	 * at the first other char; String.toLowerCase() gives the same result for
+	 * the part already done.
+	 */
+	static boolean toLowerCaseAscii(char[] buf, int off, int len) {
+		for (int i = off, end = off + len; i < end; i++) {
+			char c = buf[i];
+			if (c >= 'A' && c <= 'Z') {
+				buf[i] = (char) (c + ('a' - 'A'));
+			} else if (c >= 0x80) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public void filter(TokenBatch batch) {
+		for (int i = 0; i < batch.size(); i++) {
+			if (!toLowerCaseAscii(batch.array(), batch.offset(i),
+					batch.length(i)))
+				batch.set(i, batch.toString(i).toLowerCase());
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "LowerCaseFilter";
+	}
+}
@@ -0,0 +1,60 @@
+package hs.kwords;
+
+import java.io.FileNotFoundException;
+
+/**
+ * LowerCaseFilter followed by StopWordFilter in one step. On slices and
+ * batches ASCII tokens are lowercased in place and looked up in a StopWordSet
+ * without allocating, so only the words that are kept become Strings.
+ * Tokens with other characters go through String.toLowerCase() as before.
+ */
+public class LowerCaseStopWordFilter implements SliceFilter, BatchFilter {
+	private StopWordSet stopWords;
+
+	public LowerCaseStopWordFilter(String stopWordsPath)
+			throws FileNotFoundException {
+		this.stopWords = StopWordSet.read(stopWordsPath);
+	}
+
+	public LowerCaseStopWordFilter(StopWordSet stopWords) {
+		this.stopWords = stopWords;
+	}
+
+	public String filter(String w) {
+		if (w == null)
+			return w;
+		String lower = w.toLowerCase();
+		return stopWords.contains(lower) ? null : lower;
+	}
+
+	public String filter(CharSlice slice) {
+		char[] buf = slice.array();
+		int off = slice.offset();
+		if (!LowerCaseFilter.toLowerCaseAscii(buf, off, slice.length()))
+			return filter(slice.toString());
+		if (stopWords.contains(buf, off, slice.length()))
+			return null;
+		return new String(buf, off, slice.length());
+	}
+
+	public void filter(TokenBatch batch) {
+		int n = 0;
+		for (int i = 0; i < batch.size(); i++) {
+			int off = batch.offset(i);
+			int len = batch.length(i);
+			if (!LowerCaseFilter.toLowerCaseAscii(batch.array(), off, len)) {
+				batch.set(i, batch.toString(i).toLowerCase());
+				off = batch.offset(i);
+				len = batch.length(i);
+			}
+			if (!stopWords.contains(batch.array(), off, len))
+				batch.move(i, n++);
+		}
+		batch.truncate(n);
+	}
+
+	@Override
+	public String toString() {
+		return "LowerCaseStopWordFilter[" + stopWords + "]";
+	}
+}
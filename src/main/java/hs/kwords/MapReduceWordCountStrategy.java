@@ -0,0 +1,401 @@
+package hs.kwords;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Counts with local worker processes instead of threads. The coordinator
+ * splits the input into byte ranges which end on whitespace, and samples it
+ * for splitters which cut the words into key ranges. One map process per
+ * byte range counts it with the external sort and writes one sorted partial
+ * count file per key range, then one reduce process per key range merges
+ * the files of all maps and writes the top and bottom K of its range, which
+ * the coordinator merges.
+ *
+ * Processes only share the files in the work directory, so the same layout
+ * works across machines with a shared filesystem; the verbose output shows
+ * the command line of every worker.
+ */
+public class MapReduceWordCountStrategy implements WordCountStrategy {
+	// 1 GB per map, well below the 2 GB a single mapping can hold
+	private static final long MAX_RANGE_SIZE = 1L << 30;
+	private static final int SAMPLE_BLOCKS = 256;
+	private static final int SAMPLE_BLOCK_SIZE = 4096;
+
+	private File input;
+	private int workers;
+	private int reducers;
+	private final int K;
+	private String stopWordsPath;
+	// null for a directory of its own per compute() under "tmp"
+	private File workDir = null;
+	private long memoryBudget = -1;
+	private String workerHeap = null;
+	private boolean verbose = false;
+	private int maps;
+	private int partitions;
+	private WordCountMetrics metrics = new WordCountMetrics("mapreduce");
+	private Map<String, List<WordCountPair>> rv = new HashMap<String, List<WordCountPair>>();
+
+	{
+		rv.put("top", new ArrayList<WordCountPair>());
+		rv.put("bottom", new ArrayList<WordCountPair>());
+	}
+
+	/**
+	 * Runs up to workers map processes at a time and splits the words into
+	 * up to reducers key ranges. stopWordsPath may be null to count every
+	 * word.
+	 */
+	public MapReduceWordCountStrategy(File input, int workers, int reducers,
+			int k, String stopWordsPath) {
+		this.input = input;
+		this.workers = workers;
+		this.reducers = reducers;
+		this.K = k;
+		this.stopWordsPath = stopWordsPath;
+	}
+
+	/**
+	 * The directory for the splitters, the partial counts and the worker
+	 * logs, which every worker must see at the same path. Only one compute()
+	 * may use it at a time. By default each compute() creates a directory of
+	 * its own below "tmp" and deletes it when it is done.
+	 */
+	public void setWorkDir(File workDir) {
+		this.workDir = workDir;
+	}
+
+	/**
+	 * The memory budget of the external sort in each map process.
+	 */
+	public void setMemoryBudget(long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * The -Xmx of the worker processes, e.g. "512m".
+	 */
+	public void setWorkerHeap(String workerHeap) {
+		this.workerHeap = workerHeap;
+	}
+
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
+
+	/**
+	 * The word counts of the last compute(), one file per key range in key
+	 * order, in the COMPRESSED run format. They are kept only in a work
+	 * directory set with setWorkDir().
+	 */
+	public List<File> getOutputFiles() {
+		List<File> files = new ArrayList<File>();
+		if (workDir == null)
+			return files;
+		for (int p = 0; p < partitions; p++) {
+			files.add(WordCountWorker.reduceFile(workDir, p));
+		}
+		return files;
+	}
+
+	private List<Long> computeRanges(FileChannel channel, long size)
+			throws IOException {
+		long rangeSize = Math.min(MAX_RANGE_SIZE, size / workers + 1);
+		List<Long> starts = new ArrayList<Long>();
+		long pos = 0;
+		starts.add(pos);
+		do {
+			long next = pos + rangeSize;
+			if (next >= size) {
+				pos = size;
+			} else {
+				pos = ParallelWordCountStrategy.alignToWhitespace(channel,
+						next, size);
+			}
+			starts.add(pos);
+		} while (pos < size);
+		return starts;
+	}
+
+	/*
+	 * counts the words of evenly spaced blocks and takes distinct quantiles
+	 * of them in key order, so that every reducer gets about as many distinct
+	 * words
+	 */
+	private List<byte[]> sampleSplitters(FileChannel channel, long size)
+			throws IOException {
+		WordCountTable sample = new WordCountTable();
+		TokenFilter[] filters = new TokenFilter[0];
+		if (stopWordsPath != null)
+			filters = new TokenFilter[] { new LowerCaseStopWordFilter(
+					stopWordsPath) };
+		long step = Math.max(SAMPLE_BLOCK_SIZE, size / SAMPLE_BLOCKS);
+		for (long pos = 0; pos < size; pos += step) {
+			// start behind the word the block cuts into
+			long start = pos == 0 ? 0 : ParallelWordCountStrategy
+					.alignToWhitespace(channel, pos, size);
+			long end = Math.min(size, start + SAMPLE_BLOCK_SIZE);
+			if (end < size)
+				end = ParallelWordCountStrategy.alignToWhitespace(channel,
+						end, size);
+			if (start >= end)
+				continue;
+			ByteBuffer buf = ByteBuffer.allocate((int) (end - start));
+			while (buf.hasRemaining()
+					&& channel.read(buf, start + buf.position()) > 0) {
+			}
+			buf.flip();
+			TokenStream ts = new TokenStream(new Utf8Tokenizer(buf), filters);
+			TokenBatch batch = new TokenBatch();
+			while (ts.nextBatch(batch)) {
+				sample.incrementAll(batch);
+			}
+		}
+
+		List<byte[]> splitters = new ArrayList<byte[]>();
+		int[] ids = sample.sortedIds();
+		byte[] arena = sample.keyArena();
+		int last = 0;
+		for (int i = 1; i < reducers; i++) {
+			int at = (int) ((long) ids.length * i / reducers);
+			if (at <= last)
+				continue;
+			int id = ids[at];
+			int off = sample.keyOffset(id);
+			splitters.add(Arrays.copyOfRange(arena, off,
+					off + sample.keyLength(id)));
+			last = at;
+		}
+		return splitters;
+	}
+
+	private String classPath() throws IOException {
+		try {
+			return new File(WordCountWorker.class.getProtectionDomain()
+					.getCodeSource().getLocation().toURI()).getPath();
+		} catch (URISyntaxException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private Process start(List<String> args, File log) throws IOException {
+		List<String> command = new ArrayList<String>();
+		command.add(new File(System.getProperty("java.home"), "bin/java")
+				.getPath());
+		if (workerHeap != null)
+			command.add("-Xmx" + workerHeap);
+		command.add("-cp");
+		command.add(classPath());
+		command.add(WordCountWorker.class.getName());
+		command.addAll(args);
+		if (verbose)
+			System.out.println(String.join(" ", command));
+		ProcessBuilder pb = new ProcessBuilder(command);
+		pb.redirectErrorStream(true);
+		pb.redirectOutput(log);
+		return pb.start();
+	}
+
+	/*
+	 * runs the commands, at most parallel at a time, starting the next one as
+	 * soon as any worker finishes, and fails on the first worker which exits
+	 * with an error. Each command is watched by a thread of its own, which
+	 * kills its worker when it is interrupted.
+	 */
+	private void runAll(List<List<String>> commands, final List<File> logs,
+			int parallel) throws IOException {
+		ExecutorService watchers = Executors.newFixedThreadPool(parallel);
+		CompletionService<Integer> done = new ExecutorCompletionService<Integer>(
+				watchers);
+		try {
+			for (int i = 0; i < commands.size(); i++) {
+				final List<String> command = commands.get(i);
+				final int index = i;
+				done.submit(new Callable<Integer>() {
+					public Integer call() throws IOException,
+							InterruptedException {
+						Process p = start(command, logs.get(index));
+						try {
+							if (p.waitFor() != 0)
+								throw new IOException("Worker exited with "
+										+ p.exitValue() + ", see "
+										+ logs.get(index));
+						} finally {
+							p.destroy();
+						}
+						return index;
+					}
+				});
+			}
+			for (int i = 0; i < commands.size(); i++) {
+				done.take().get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for workers");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		} finally {
+			watchers.shutdownNow();
+		}
+		for (File log : logs) {
+			log.delete();
+		}
+	}
+
+	public void compute() throws IOException {
+		boolean ownDir = workDir == null;
+		File work = ownDir ? KWayMerger.createRunDir(new File("tmp"),
+				"mapreduce") : workDir;
+		work = work.getAbsoluteFile();
+		work.mkdirs();
+		maps = 0;
+		partitions = 0;
+		boolean done = false;
+		try {
+			compute(work);
+			done = true;
+		} finally {
+			if (ownDir && done) {
+				KWayMerger.deleteTree(work);
+			} else {
+				deleteIntermediate(work, !done);
+			}
+		}
+		metrics.commit();
+	}
+
+	/*
+	 * removes what the workers leave behind. The logs of a failed run stay,
+	 * since the error points to them, and so do the counts of a successful one.
+	 */
+	private void deleteIntermediate(File work, boolean failed) {
+		new File(work, WordCountWorker.SPLITTERS).delete();
+		for (int m = 0; m < maps; m++) {
+			KWayMerger.deleteTree(WordCountWorker.mapDir(work, m));
+		}
+		for (int p = 0; p < partitions; p++) {
+			File counts = WordCountWorker.reduceFile(work, p);
+			KWayMerger.deleteTree(new File(work, counts.getName() + ".tmp"));
+			WordCountWorker.topFile(work, p).delete();
+			WordCountWorker.bottomFile(work, p).delete();
+			if (failed)
+				counts.delete();
+		}
+	}
+
+	private void compute(File work) throws IOException {
+		WordCountMetrics.Phase phase = metrics.beginPhase("split");
+		List<Long> starts;
+		RandomAccessFile raf = new RandomAccessFile(input, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			long size = channel.size();
+			starts = computeRanges(channel, size);
+			WordCountWorker.writeSplitters(work,
+					sampleSplitters(channel, size));
+		} finally {
+			raf.close();
+		}
+		maps = starts.size() - 1;
+		partitions = WordCountWorker.readSplitters(work).size() + 1;
+		if (verbose)
+			System.out.println(maps + " maps, " + partitions + " partitions");
+		phase.end();
+
+		phase = metrics.beginPhase("map");
+		List<List<String>> commands = new ArrayList<List<String>>();
+		List<File> logs = new ArrayList<File>();
+		for (int m = 0; m < maps; m++) {
+			List<String> args = new ArrayList<String>(Arrays.asList("map",
+					work.getPath(), Integer.toString(m), input
+							.getAbsolutePath(), Long.toString(starts.get(m)),
+					Long.toString(starts.get(m + 1))));
+			if (stopWordsPath != null) {
+				args.add("--stop-words");
+				args.add(new File(stopWordsPath).getAbsolutePath());
+			}
+			if (memoryBudget > 0) {
+				args.add("--memory-budget");
+				args.add(Long.toString(memoryBudget));
+			}
+			commands.add(args);
+			logs.add(new File(work, String.format("map-%05d.log", m)));
+		}
+		runAll(commands, logs, workers);
+		for (int m = 0; m < maps; m++) {
+			Properties stats = WordCountWorker.readStats(work, m);
+			metrics.addTokens(Long.parseLong(stats.getProperty("tokens")));
+			metrics.addBytesRead(Long.parseLong(stats.getProperty("bytesRead")));
+			metrics.addSpills(Integer.parseInt(stats
+					.getProperty("runsSpilled")), Long.parseLong(stats
+					.getProperty("bytesSpilled")), Long.parseLong(stats
+					.getProperty("bytesSpilledUncompressed")));
+		}
+		phase.end();
+
+		phase = metrics.beginPhase("reduce");
+		commands.clear();
+		logs.clear();
+		for (int p = 0; p < partitions; p++) {
+			commands.add(Arrays.asList("reduce", work.getPath(),
+					Integer.toString(p), Integer.toString(maps),
+					Integer.toString(K)));
+			logs.add(new File(work, String.format("reduce-%05d.log", p)));
+		}
+		runAll(commands, logs, Math.max(workers, reducers));
+		phase.end();
+
+		phase = metrics.beginPhase("select");
+		TopKSelector selector = new TopKSelector(K);
+		for (int p = 0; p < partitions; p++) {
+			offerAll(selector, WordCountWorker.topFile(work, p));
+			offerAll(selector, WordCountWorker.bottomFile(work, p));
+		}
+		rv.put("top", selector.top());
+		rv.put("bottom", selector.bottom());
+		phase.end();
+	}
+
+	private static void offerAll(TopKSelector selector, File f)
+			throws IOException {
+		RunReader reader = RunFormat.TEXT.openReader(f,
+				KWayMerger.DEFAULT_BUFFER_SIZE);
+		try {
+			while (reader.next()) {
+				selector.offer(reader.keyBytes(), 0, reader.keyLength(),
+						reader.count());
+			}
+		} finally {
+			reader.close();
+		}
+		f.delete();
+	}
+
+	public Map<String, List<WordCountPair>> get() {
+		return rv;
+	}
+
+	public WordCountMetrics getMetrics() {
+		return metrics;
+	}
+}
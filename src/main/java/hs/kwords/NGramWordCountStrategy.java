@@ -0,0 +1,470 @@
+package hs.kwords;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts the sequences of one up to three consecutive words of a token
+ * stream, after its filters. Every word gets an int id from a
+ * WordCountTable, which also holds the counts of single words, and longer
+ * n-grams are counted as 21 bits per word id packed into a long key of a
+ * LongIntTable, so that no n-gram is ever built as a String until it makes
+ * it into a result.
+ *
+ * Like the adaptive strategy it counts in memory until the tables pass the
+ * memory budget. From then on the n-gram table is spilled as sorted runs of
+ * eight byte big-endian keys, whose byte order is the order of the keys, and
+ * the runs are summed by the KWayMerger. The word table stays in memory
+ * until its 21 bit ids, about two million, are used up. Then the words and
+ * n-grams counted so far are written as runs keyed by their bytes, words
+ * separated by spaces, the word table starts over with new ids, and in the
+ * end all these runs are merged instead.
+ *
+ * get() holds "topN" and "bottomN" for every n, and the single words again
+ * as "top" and "bottom".
+ */
+public class NGramWordCountStrategy implements WordCountStrategy {
+	public static final int MAX_N = 3;
+	private static final int ID_BITS = 21;
+
+	private TokenStream ts;
+	private final int maxN;
+	private final int K;
+	private long memoryBudget = AdaptiveWordCountStrategy.defaultMemoryBudget();
+	private int fanIn = KWayMerger.DEFAULT_FAN_IN;
+	private RunFormat runFormat = RunFormat.BINARY;
+	private File tmpPath = new File("tmp");
+	// the directory of this count's runs under tmpPath, once it spills
+	private File runDir;
+	private boolean verbose = false;
+	private int idBits = ID_BITS;
+	private long idMask = (1L << ID_BITS) - 1;
+	// ids are stored plus one, so that 0 marks a missing word
+	private int maxWords = (int) idMask - 1;
+	private WordCountTable words;
+	private LongIntTable grams;
+	// the runs of packed keys, which need the word table of their ids
+	private List<File> runs;
+	// the runs keyed by the bytes of the words and n-grams
+	private List<File> textRuns;
+	private int spills;
+	private TopKSelector[] selectors;
+	private byte[] scratch = new byte[64];
+	private WordCountMetrics metrics = new WordCountMetrics("ngram");
+	private Map<String, List<WordCountPair>> rv = new HashMap<String, List<WordCountPair>>();
+
+	{
+		rv.put("top", new ArrayList<WordCountPair>());
+		rv.put("bottom", new ArrayList<WordCountPair>());
+	}
+
+	public NGramWordCountStrategy(TokenStream ts, int maxN) {
+		this(ts, maxN, DEFAULT_K);
+	}
+
+	/**
+	 * Counts n-grams of every n from 1 to maxN.
+	 */
+	public NGramWordCountStrategy(TokenStream ts, int maxN, int k) {
+		if (maxN < 1 || maxN > MAX_N)
+			throw new IllegalArgumentException("n must be between 1 and "
+					+ MAX_N + ": " + maxN);
+		this.ts = ts;
+		this.maxN = maxN;
+		this.K = k;
+	}
+
+	/**
+	 * Sets how large the word and n-gram tables may grow together before the
+	 * n-grams are spilled. At least a quarter of it is left to the n-grams,
+	 * however large the word table grows.
+	 */
+	public void setMemoryBudget(long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	public void setMergeFanIn(int fanIn) {
+		this.fanIn = fanIn;
+	}
+
+	/**
+	 * The format of the spilled runs, which hold binary keys and so can not
+	 * be TEXT.
+	 */
+	public void setRunFormat(RunFormat runFormat) {
+		if (runFormat == RunFormat.TEXT)
+			throw new IllegalArgumentException(
+					"n-gram runs need a binary run format");
+		this.runFormat = runFormat;
+	}
+
+	/**
+	 * Sets the directory for the spilled runs, "tmp" by default. Each count
+	 * spills into a directory of its own below it, which is deleted when the
+	 * count is done.
+	 */
+	public void setTmpDir(File tmpPath) {
+		this.tmpPath = tmpPath;
+	}
+
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
+
+	/**
+	 * Sets how many bits a word id takes in a packed key, 21 by default. With
+	 * fewer the word table is spilled sooner, which tests use to get past
+	 * the limit with little input.
+	 */
+	void setIdBits(int idBits) {
+		if (idBits < 3 || idBits > ID_BITS)
+			throw new IllegalArgumentException("id bits must be between 3 and "
+					+ ID_BITS + ": " + idBits);
+		this.idBits = idBits;
+		this.idMask = (1L << idBits) - 1;
+		this.maxWords = (int) idMask - 1;
+	}
+
+	long pack(long key, int id) {
+		return (key << idBits) | (id + 1);
+	}
+
+	/*
+	 * the number of words in a packed key
+	 */
+	int length(long key) {
+		int n = 0;
+		for (; key != 0; key >>>= idBits) {
+			n++;
+		}
+		return n;
+	}
+
+	private int id(long key, int shift) {
+		return (int) ((key >>> shift) & idMask) - 1;
+	}
+
+	/*
+	 * builds the n-gram with its words separated by single spaces in scratch,
+	 * and returns its length
+	 */
+	private int text(long key) {
+		int n = length(key);
+		byte[] arena = words.keyArena();
+		int len = 0;
+		for (int shift = (n - 1) * idBits; shift >= 0; shift -= idBits) {
+			int id = id(key, shift);
+			int wordLength = words.keyLength(id);
+			if (scratch.length < len + wordLength + 1)
+				scratch = Arrays.copyOf(scratch,
+						Math.max(len + wordLength + 1, scratch.length * 2));
+			if (len > 0)
+				scratch[len++] = ' ';
+			System.arraycopy(arena, words.keyOffset(id), scratch, len,
+					wordLength);
+			len += wordLength;
+		}
+		return len;
+	}
+
+	/*
+	 * offers the n-gram, building its bytes only if the count can make it
+	 * into a list
+	 */
+	private void offer(long key, int count) {
+		TopKSelector selector = selectors[length(key) - 1];
+		if (selector.accepts(count))
+			selector.offer(scratch, 0, text(key), count);
+	}
+
+	private File runFile(String prefix, int run) throws IOException {
+		if (runDir == null)
+			runDir = KWayMerger.createRunDir(tmpPath, "ngrams");
+		return new File(runDir, String.format("%s-%05d", prefix, run));
+	}
+
+	private void spill() throws IOException {
+		RunSpilledEvent event = metrics.beginSpill();
+		int run = spills++;
+		long[] keys = grams.sortedKeys();
+		File outFile = runFile("ngrams", run);
+		RunWriter writer = runFormat.openWriter(outFile,
+				KWayMerger.DEFAULT_BUFFER_SIZE);
+		byte[] b = new byte[8];
+		try {
+			for (long key : keys) {
+				for (int i = 0; i < 8; i++) {
+					b[i] = (byte) (key >>> (56 - 8 * i));
+				}
+				writer.write(b, 0, 8, grams.get(key));
+			}
+		} finally {
+			writer.close();
+		}
+		metrics.runSpilled(event, run, keys.length, outFile.length(),
+				writer.getBytesWritten());
+		grams.clear();
+		runs.add(outFile);
+	}
+
+	private static long readKey(byte[] key, int off) {
+		long k = 0;
+		for (int i = 0; i < 8; i++) {
+			k = (k << 8) | (key[off + i] & 0xff);
+		}
+		return k;
+	}
+
+	/*
+	 * takes the merged runs and offers every n-gram as it goes by
+	 */
+	private class SelectingWriter implements RunSink {
+		public void write(byte[] key, int off, int len, int count) {
+			offer(readKey(key, off), count);
+		}
+
+		public void close() {
+		}
+	}
+
+	/*
+	 * collects words and n-grams by their bytes, and spills them as sorted
+	 * runs whenever they pass the budget
+	 */
+	private class TextSpiller implements RunSink {
+		private WordCountTable texts = new WordCountTable();
+		private long budget = Math.max(memoryBudget / 4, memoryBudget
+				- words.memoryFootprint());
+
+		public void write(byte[] key, int off, int len, int count)
+				throws IOException {
+			// the packed runs, whose keys still need the word table
+			add(scratch, 0, text(readKey(key, off)), count);
+		}
+
+		void add(byte[] b, int off, int len, int count) throws IOException {
+			texts.add(b, off, len, count);
+			if (texts.bytesUsed() > budget)
+				spill();
+		}
+
+		/*
+		 * runs are sorted in UTF-8 byte order, the order the merge reads them
+		 * in
+		 */
+		private void spill() throws IOException {
+			RunSpilledEvent event = metrics.beginSpill();
+			int run = spills++;
+			int[] ids = texts.sortedIds();
+			File outFile = runFile("text", run);
+			RunWriter writer = runFormat.openWriter(outFile,
+					KWayMerger.DEFAULT_BUFFER_SIZE);
+			byte[] arena = texts.keyArena();
+			try {
+				for (int id : ids) {
+					writer.write(arena, texts.keyOffset(id), texts.keyLength(id),
+							texts.count(id));
+				}
+			} finally {
+				writer.close();
+			}
+			metrics.runSpilled(event, run, ids.length, outFile.length(),
+					writer.getBytesWritten());
+			texts.clear();
+			textRuns.add(outFile);
+		}
+
+		public void close() throws IOException {
+			if (texts.size() > 0)
+				spill();
+		}
+	}
+
+	/*
+	 * takes the merged runs of spillWords() and offers every word and n-gram,
+	 * whose length is one more than its spaces
+	 */
+	private class TextSelectingWriter implements RunSink {
+		public void write(byte[] key, int off, int len, int count) {
+			int n = 1;
+			for (int i = off; i < off + len; i++) {
+				if (key[i] == ' ')
+					n++;
+			}
+			if (selectors[n - 1].accepts(count))
+				selectors[n - 1].offer(key, off, len, count);
+		}
+
+		public void close() {
+		}
+	}
+
+	/*
+	 * the word ids are used up, or counting is done after they were. Writes
+	 * the words and n-grams counted so far as runs keyed by their bytes, which
+	 * need no ids, and empties the word table for the next ones.
+	 */
+	private void spillWords() throws IOException {
+		if (verbose)
+			System.out.println("Spilling " + words.size() + " words");
+		TextSpiller spiller = new TextSpiller();
+		byte[] arena = words.keyArena();
+		for (int id = 0; id < words.size(); id++) {
+			// the words carried over by nextIds() may not have come again
+			if (words.count(id) > 0)
+				spiller.add(arena, words.keyOffset(id), words.keyLength(id),
+						words.count(id));
+		}
+		if (runs.isEmpty()) {
+			for (int slot = 0; slot < grams.capacity(); slot++) {
+				if (grams.keyAt(slot) != 0)
+					spiller.add(scratch, 0, text(grams.keyAt(slot)),
+							grams.countAt(slot));
+			}
+			spiller.close();
+		} else {
+			if (grams.size() > 0)
+				spill();
+			KWayMerger merger = new KWayMerger(runDir, runFormat, fanIn,
+					KWayMerger.DEFAULT_BUFFER_SIZE);
+			merger.merge(runs, spiller);
+			runs.clear();
+		}
+		grams.clear();
+		words.clear();
+	}
+
+	/*
+	 * spills the word table and gives the words of the window new ids, with
+	 * a count of 0 since they were counted already. Returns the new window.
+	 */
+	private long nextIds(long window) throws IOException {
+		List<byte[]> recent = new ArrayList<byte[]>();
+		byte[] arena = words.keyArena();
+		for (int shift = (length(window) - 1) * idBits; shift >= 0;
+				shift -= idBits) {
+			int id = id(window, shift);
+			int off = words.keyOffset(id);
+			recent.add(Arrays.copyOfRange(arena, off,
+					off + words.keyLength(id)));
+		}
+		spillWords();
+		window = 0;
+		for (byte[] w : recent) {
+			window = pack(window, words.addAndGetId(w, 0, w.length, 0));
+		}
+		return window;
+	}
+
+	public void compute() throws IOException {
+		try {
+			count();
+		} finally {
+			if (runDir != null)
+				KWayMerger.deleteTree(runDir);
+			runDir = null;
+		}
+		metrics.commit();
+	}
+
+	private void count() throws IOException {
+		WordCountMetrics.Phase phase = metrics.beginPhase("count");
+		words = new WordCountTable();
+		grams = new LongIntTable();
+		runs = new ArrayList<File>();
+		textRuns = new ArrayList<File>();
+		spills = 0;
+		TokenBatch batch = new TokenBatch();
+		long tokenCount = 0;
+		// the last maxN - 1 word ids, packed like a key
+		long window = 0;
+		long windowMask = (1L << (idBits * (maxN - 1))) - 1;
+		while (ts.nextBatch(batch)) {
+			char[] chars = batch.array();
+			for (int i = 0; i < batch.size(); i++) {
+				int id = words.addAndGetId(chars, batch.offset(i),
+						batch.length(i), 1);
+				if (id >= maxWords) {
+					// counted already, it only needs a new id
+					window = nextIds(window);
+					id = words.addAndGetId(chars, batch.offset(i),
+							batch.length(i), 0);
+				}
+				window = pack(window, id);
+				// every n-gram ending in this word
+				for (int n = 2; n <= maxN; n++) {
+					long key = window & ((1L << (idBits * n)) - 1);
+					// unless the stream has fewer than n words so far
+					if (key >>> (idBits * (n - 1)) != 0)
+						grams.add(key, 1);
+				}
+				window &= windowMask;
+			}
+			tokenCount += batch.size();
+			// the n-grams get what the words leave, but at least a quarter
+			if (grams.bytesUsed() > Math.max(memoryBudget / 4, memoryBudget
+					- words.memoryFootprint())) {
+				if (verbose)
+					System.out.println("Spilling " + grams.size()
+							+ " n-grams after " + tokenCount + " tokens");
+				spill();
+			}
+		}
+		metrics.addTokens(tokenCount);
+		metrics.addBytesRead(ts.getBytesRead());
+		metrics.recordTable(words);
+		if (!textRuns.isEmpty())
+			spillWords();
+		phase.end();
+
+		selectors = new TopKSelector[maxN];
+		for (int n = 0; n < maxN; n++) {
+			selectors[n] = new TopKSelector(K);
+		}
+		if (!textRuns.isEmpty()) {
+			phase = metrics.beginPhase("merge");
+			KWayMerger merger = new KWayMerger(runDir, runFormat, fanIn,
+					KWayMerger.DEFAULT_BUFFER_SIZE);
+			merger.merge(textRuns, new TextSelectingWriter());
+			metrics.setMergePasses(merger.getPasses());
+		} else if (runs.isEmpty()) {
+			phase = metrics.beginPhase("select");
+			selectors[0].offerAll(words);
+			for (int slot = 0; slot < grams.capacity(); slot++) {
+				if (grams.keyAt(slot) != 0)
+					offer(grams.keyAt(slot), grams.countAt(slot));
+			}
+		} else {
+			selectors[0].offerAll(words);
+			if (grams.size() > 0)
+				spill();
+			phase = metrics.beginPhase("merge");
+			KWayMerger merger = new KWayMerger(runDir, runFormat, fanIn,
+					KWayMerger.DEFAULT_BUFFER_SIZE);
+			merger.merge(runs, new SelectingWriter());
+			metrics.setMergePasses(merger.getPasses());
+		}
+		grams = null;
+
+		for (int n = 1; n <= maxN; n++) {
+			rv.put("top" + n, selectors[n - 1].top());
+			rv.put("bottom" + n, selectors[n - 1].bottom());
+		}
+		rv.put("top", rv.get("top1"));
+		rv.put("bottom", rv.get("bottom1"));
+		phase.end();
+	}
+
+	public Map<String, List<WordCountPair>> get() {
+		return rv;
+	}
+
+	public WordCountMetrics getMetrics() {
+		return metrics;
+	}
+}
@@ -0,0 +1,195 @@
+package hs.kwords;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Memory maps the input file, splits it into chunks which end on a whitespace
+ * byte and counts every chunk on its own fork-join worker, tokenizing the
+ * mapped bytes with Utf8Tokenizer. Each worker keeps a private WordCountTable,
+ * the partial tables are merged while the tasks are joined.
+ */
+public class ParallelWordCountStrategy implements WordCountStrategy {
+	private static final int MIN_CHUNK_SIZE = 1 << 20;
+
+	private File input;
+	private int threads;
+	private TokenFilter[] filters;
+	private final int K;
+	private FileChannel channel;
+	private long[] chunkStarts;
+	private WordCountMetrics metrics = new WordCountMetrics("parallel");
+	private Map<String, List<WordCountPair>> rv = new HashMap<String, List<WordCountPair>>();
+
+	{
+		rv.put("top", new ArrayList<WordCountPair>());
+		rv.put("bottom", new ArrayList<WordCountPair>());
+	}
+
+	public ParallelWordCountStrategy(File input, int threads,
+			TokenFilter... filters) {
+		this(input, threads, DEFAULT_K, filters);
+	}
+
+	public ParallelWordCountStrategy(File input, int threads, int k,
+			TokenFilter... filters) {
+		this.input = input;
+		this.threads = threads;
+		this.K = k;
+		this.filters = filters;
+	}
+
+	/*
+	 * move a tentative boundary forward to the next whitespace byte, so that no
+	 * word is cut in half. UTF-8 continuation bytes are never whitespace, so
+	 * multi-byte characters are not split either.
+	 */
+	static long alignToWhitespace(FileChannel channel, long pos, long size)
+			throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(4096);
+		while (pos < size) {
+			buf.clear();
+			int n = channel.read(buf, pos);
+			if (n <= 0)
+				break;
+			for (int i = 0; i < n; i++) {
+				if (Utf8.isWhitespace(buf.get(i)))
+					return pos + i;
+			}
+			pos += n;
+		}
+		return size;
+	}
+
+	private void computeChunks(long size) throws IOException {
+		long chunkSize = Math.max(MIN_CHUNK_SIZE, size / (threads * 4L) + 1);
+		chunkSize = Math.min(chunkSize, Integer.MAX_VALUE / 2);
+		List<Long> starts = new ArrayList<Long>();
+		long pos = 0;
+		starts.add(pos);
+		while (pos < size) {
+			long next = pos + chunkSize;
+			if (next >= size) {
+				pos = size;
+			} else {
+				pos = alignToWhitespace(channel, next, size);
+			}
+			starts.add(pos);
+		}
+		chunkStarts = new long[starts.size()];
+		for (int i = 0; i < chunkStarts.length; i++) {
+			chunkStarts[i] = starts.get(i);
+		}
+	}
+
+	private WordCountTable countChunk(int chunk) throws IOException {
+		long start = chunkStarts[chunk];
+		long length = chunkStarts[chunk + 1] - start;
+		WordCountTable table = new WordCountTable();
+		if (length == 0)
+			return table;
+		MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY,
+				start, length);
+		Tokenizer tokenizer = new Utf8Tokenizer(buf);
+		TokenStream ts = new TokenStream(tokenizer, filters);
+		TokenBatch batch = new TokenBatch();
+		long tokenCount = 0;
+		while (ts.nextBatch(batch)) {
+			table.incrementAll(batch);
+			tokenCount += batch.size();
+		}
+		metrics.addTokens(tokenCount);
+		metrics.addBytesRead(ts.getBytesRead());
+		return table;
+	}
+
+	private static WordCountTable mergeInto(WordCountTable a, WordCountTable b) {
+		if (a.size() < b.size()) {
+			WordCountTable t = a;
+			a = b;
+			b = t;
+		}
+		a.addAll(b);
+		return a;
+	}
+
+	private class ChunkCountTask extends RecursiveTask<WordCountTable> {
+		private static final long serialVersionUID = 1L;
+		private int from;
+		private int to;
+
+		ChunkCountTask(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected WordCountTable compute() {
+			if (to - from == 1) {
+				try {
+					return countChunk(from);
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+			int mid = (from + to) >>> 1;
+			ChunkCountTask left = new ChunkCountTask(from, mid);
+			ChunkCountTask right = new ChunkCountTask(mid, to);
+			left.fork();
+			WordCountTable rightTable = right.compute();
+			return mergeInto(left.join(), rightTable);
+		}
+	}
+
+	public void compute() throws IOException {
+		WordCountMetrics.Phase phase = metrics.beginPhase("count");
+		RandomAccessFile raf = new RandomAccessFile(input, "r");
+		channel = raf.getChannel();
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		WordCountTable table;
+		try {
+			computeChunks(channel.size());
+			if (chunkStarts.length < 2) {
+				table = new WordCountTable();
+			} else {
+				table = pool.invoke(new ChunkCountTask(0, chunkStarts.length - 1));
+			}
+		} catch (RuntimeException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw e;
+		} finally {
+			pool.shutdown();
+			raf.close();
+		}
+		metrics.recordTable(table);
+		phase.end();
+
+		phase = metrics.beginPhase("select");
+		TopKSelector selector = new TopKSelector(K);
+		selector.offerAll(table);
+
+		rv.put("top", selector.top());
+		rv.put("bottom", selector.bottom());
+		phase.end();
+		metrics.commit();
+	}
+
+	public Map<String, List<WordCountPair>> get() {
+		return rv;
+	}
+
+	public WordCountMetrics getMetrics() {
+		return metrics;
+	}
+}
@@ -0,0 +1,79 @@
+package hs.kwords;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Splits a sorted run into key ranges. Partition i holds the words from
+ * splitter i - 1 (inclusive) up to splitter i (exclusive), so with n
+ * splitters there are n + 1 partitions, each sorted, and every partition file
+ * is written even if it stays empty. Words must arrive in UTF-8 byte order.
+ */
+public class PartitionedRunWriter implements RunWriter {
+	private List<byte[]> splitters;
+	private RunWriter[] writers;
+	private int partition = 0;
+	private byte[] scratch = new byte[64];
+
+	public PartitionedRunWriter(List<byte[]> splitters, File[] targets,
+			RunFormat format, int bufferSize) throws IOException {
+		if (targets.length != splitters.size() + 1)
+			throw new IllegalArgumentException(splitters.size()
+					+ " splitters need " + (splitters.size() + 1)
+					+ " targets, not " + targets.length);
+		this.splitters = splitters;
+		this.writers = new RunWriter[targets.length];
+		try {
+			for (int i = 0; i < targets.length; i++) {
+				writers[i] = format.openWriter(targets[i], bufferSize);
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	public void write(String word, int count) throws IOException {
+		if (scratch.length < Utf8.maxBytes(word))
+			scratch = new byte[Utf8.maxBytes(word)];
+		int len = Utf8.encode(word, scratch, 0);
+		write(scratch, 0, len, count);
+	}
+
+	public void write(byte[] key, int off, int len, int count)
+			throws IOException {
+		while (partition < splitters.size()) {
+			byte[] s = splitters.get(partition);
+			if (Utf8.compare(key, off, len, s, 0, s.length) < 0)
+				break;
+			partition++;
+		}
+		writers[partition].write(key, off, len, count);
+	}
+
+	public long getBytesWritten() {
+		long sum = 0;
+		for (RunWriter w : writers) {
+			if (w != null)
+				sum += w.getBytesWritten();
+		}
+		return sum;
+	}
+
+	public void close() throws IOException {
+		IOException first = null;
+		for (RunWriter w : writers) {
+			if (w == null)
+				continue;
+			try {
+				w.close();
+			} catch (IOException e) {
+				if (first == null)
+					first = e;
+			}
+		}
+		if (first != null)
+			throw first;
+	}
+}
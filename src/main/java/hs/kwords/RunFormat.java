@@ -0,0 +1,47 @@
+package hs.kwords;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * On-disk formats for the sorted runs of the external sort.
+ */
+public enum RunFormat {
+	// one "word\tcount" line per record, easy to inspect
+	TEXT {
+		public RunReader openReader(File f, int bufferSize) throws IOException {
+			return new TextRunReader(f, bufferSize);
+		}
+
+		public RunWriter openWriter(File f, int bufferSize) throws IOException {
+			return new TextRunWriter(f, bufferSize);
+		}
+	},
+	// varint length prefixed UTF-8 words with prefix compression
+	BINARY {
+		public RunReader openReader(File f, int bufferSize) throws IOException {
+			return new BinaryRunReader(f, bufferSize);
+		}
+
+		public RunWriter openWriter(File f, int bufferSize) throws IOException {
+			return new BinaryRunWriter(f, bufferSize, true);
+		}
+	},
+	// BINARY deflated a buffer at a time, for when the disk is slower than
+	// the fastest deflate level or too small for the runs
+	COMPRESSED {
+		public RunReader openReader(File f, int bufferSize) throws IOException {
+			return new BinaryRunReader(f, bufferSize);
+		}
+
+		public RunWriter openWriter(File f, int bufferSize) throws IOException {
+			return new BinaryRunWriter(f, bufferSize, true, true);
+		}
+	};
+
+	public abstract RunReader openReader(File f, int bufferSize)
+			throws IOException;
+
+	public abstract RunWriter openWriter(File f, int bufferSize)
+			throws IOException;
+}
@@ -0,0 +1,28 @@
+package hs.kwords;
+
+import java.io.IOException;
+
+/**
+ * Sequential reader over a run of (word, count) records sorted by the UTF-8
+ * bytes of the word.
+ */
+public interface RunReader {
+	/**
+	 * Moves to the next record, returns false at the end of the run.
+	 */
+	public boolean next() throws IOException;
+
+	/**
+	 * UTF-8 bytes of the current word in keyBytes()[0, keyLength()). The array
+	 * is reused by next().
+	 */
+	public byte[] keyBytes();
+
+	public int keyLength();
+
+	public String word();
+
+	public int count();
+
+	public void close() throws IOException;
+}
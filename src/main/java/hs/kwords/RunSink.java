@@ -0,0 +1,16 @@
+package hs.kwords;
+
+import java.io.IOException;
+
+/**
+ * Takes (key, count) records in key order, as the KWayMerger emits them.
+ */
+public interface RunSink {
+	/**
+	 * Takes the UTF-8 encoded word, or other key, in key[off, off + len).
+	 */
+	public void write(byte[] key, int off, int len, int count)
+			throws IOException;
+
+	public void close() throws IOException;
+}
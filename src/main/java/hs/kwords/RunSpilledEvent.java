@@ -0,0 +1,32 @@
+package hs.kwords;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A sorted run written to disk, timed from sorting to closing the file.
+ */
+@Name("hs.kwords.RunSpilled")
+@Label("Run Spilled")
+@Category("Word Count")
+class RunSpilledEvent extends Event {
+	@Label("Strategy")
+	String strategy;
+
+	@Label("Run")
+	int run;
+
+	@Label("Words")
+	int words;
+
+	@Label("Size")
+	@DataAmount
+	long bytes;
+
+	@Label("Uncompressed Size")
+	@DataAmount
+	long uncompressedBytes;
+}
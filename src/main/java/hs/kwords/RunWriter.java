@@ -0,0 +1,22 @@
+package hs.kwords;
+
+import java.io.IOException;
+
+/**
+ * Appends (word, count) records to a run file.
+ */
+public interface RunWriter extends RunSink {
+	public void write(String word, int count) throws IOException;
+
+	/**
+	 * Writes the UTF-8 encoded word in key[off, off + len).
+	 */
+	public void write(byte[] key, int off, int len, int count)
+			throws IOException;
+
+	/**
+	 * Bytes written so far before any compression, so that the file length
+	 * over this is the compression ratio.
+	 */
+	public long getBytesWritten();
+}
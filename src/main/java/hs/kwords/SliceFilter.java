@@ -0,0 +1,14 @@
+package hs.kwords;
+
+/**
+ * A TokenFilter which can also work on the reusable slice of a
+ * CharTokenizer. TokenStream hands it slices when it is the first filter,
+ * so that tokens it drops are never turned into Strings.
+ */
+public interface SliceFilter extends TokenFilter {
+	/**
+	 * Same result as filter(slice.toString()). The slice may be changed in
+	 * place.
+	 */
+	public String filter(CharSlice slice);
+}
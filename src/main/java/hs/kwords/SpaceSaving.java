@@ -0,0 +1,192 @@
+package hs.kwords;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Space-Saving heavy hitters summary with a fixed number of counters. When a
+ * new word arrives and all counters are taken, the word with the smallest
+ * count is evicted and the new word inherits its count as error. Every word
+ * occurring more than total / capacity times is guaranteed to be tracked,
+ * and a tracked count overestimates the true count by at most its error.
+ * The counters form an indexed min-heap, so each offer is O(log capacity).
+ *
+ * Words are looked up by a 64 bit hash from CountMinSketch.hash() in an open
+ * addressing table of counter indexes, and compared to the token's chars in
+ * place, so a token only becomes a String when it takes over a counter.
+ */
+public class SpaceSaving {
+	private int capacity;
+	private int size = 0;
+	private String[] words;
+	private int[] counts;
+	private int[] errors;
+	// heap of counter indexes ordered by count, and each counter's heap slot
+	private int[] heap;
+	private int[] heapPos;
+	// counter index + 1 per slot, 0 if empty, and each counter's word hash
+	private int[] slots;
+	private int mask;
+	private long[] hashes;
+
+	public SpaceSaving(int capacity) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("capacity must be positive: "
+					+ capacity);
+		this.capacity = capacity;
+		words = new String[capacity];
+		counts = new int[capacity];
+		errors = new int[capacity];
+		heap = new int[capacity];
+		heapPos = new int[capacity];
+		hashes = new long[capacity];
+		int tableSize = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) << 1;
+		slots = new int[tableSize];
+		mask = tableSize - 1;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	private static boolean equals(String word, char[] buf, int off, int len) {
+		if (word.length() != len)
+			return false;
+		for (int i = 0; i < len; i++) {
+			if (word.charAt(i) != buf[off + i])
+				return false;
+		}
+		return true;
+	}
+
+	/*
+	 * the slot holding the word, or the empty slot where it belongs
+	 */
+	private int findSlot(char[] buf, int off, int len, long hash) {
+		int slot = (int) hash & mask;
+		while (true) {
+			int e = slots[slot];
+			if (e == 0)
+				return slot;
+			if (hashes[e - 1] == hash && equals(words[e - 1], buf, off, len))
+				return slot;
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	private int slotOf(int counter) {
+		int slot = (int) hashes[counter] & mask;
+		while (slots[slot] != counter + 1) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/*
+	 * empties a slot, moving later entries of its probe run back so that
+	 * every entry stays reachable from its home slot
+	 */
+	private void removeSlot(int slot) {
+		int hole = slot;
+		int j = slot;
+		while (true) {
+			j = (j + 1) & mask;
+			int e = slots[j];
+			if (e == 0)
+				break;
+			int home = (int) hashes[e - 1] & mask;
+			// move e unless its home lies cyclically in (hole, j]
+			if (((j - home) & mask) >= ((j - hole) & mask)) {
+				slots[hole] = e;
+				hole = j;
+			}
+		}
+		slots[hole] = 0;
+	}
+
+	public void offer(String word) {
+		offer(word.toCharArray(), 0, word.length(), CountMinSketch.hash(word));
+	}
+
+	/**
+	 * Offers the word in buf[off, off + len), whose CountMinSketch.hash() is
+	 * hash.
+	 */
+	public void offer(char[] buf, int off, int len, long hash) {
+		int slot = findSlot(buf, off, len, hash);
+		int e = slots[slot];
+		if (e != 0) {
+			int c = e - 1;
+			counts[c]++;
+			siftDown(heapPos[c]);
+		} else if (size < capacity) {
+			int i = size++;
+			words[i] = new String(buf, off, len);
+			hashes[i] = hash;
+			counts[i] = 1;
+			errors[i] = 0;
+			slots[slot] = i + 1;
+			heap[i] = i;
+			heapPos[i] = i;
+			siftUp(i);
+		} else {
+			int i = heap[0];
+			removeSlot(slotOf(i));
+			words[i] = new String(buf, off, len);
+			hashes[i] = hash;
+			errors[i] = counts[i];
+			counts[i]++;
+			// the removal may have moved the free slot
+			slots[findSlot(buf, off, len, hash)] = i + 1;
+			siftDown(0);
+		}
+	}
+
+	private void swap(int a, int b) {
+		int t = heap[a];
+		heap[a] = heap[b];
+		heap[b] = t;
+		heapPos[heap[a]] = a;
+		heapPos[heap[b]] = b;
+	}
+
+	private void siftUp(int p) {
+		while (p > 0) {
+			int parent = (p - 1) / 2;
+			if (counts[heap[parent]] <= counts[heap[p]])
+				break;
+			swap(p, parent);
+			p = parent;
+		}
+	}
+
+	private void siftDown(int p) {
+		while (true) {
+			int l = 2 * p + 1;
+			if (l >= size)
+				break;
+			int smallest = l;
+			int r = l + 1;
+			if (r < size && counts[heap[r]] < counts[heap[l]])
+				smallest = r;
+			if (counts[heap[p]] <= counts[heap[smallest]])
+				break;
+			swap(p, smallest);
+			p = smallest;
+		}
+	}
+
+	/**
+	 * All tracked words. The count of each pair is an upper bound of the true
+	 * count, and count - error is a lower bound.
+	 */
+	public List<WordCountPair> entries() {
+		List<WordCountPair> lst = new ArrayList<WordCountPair>(size);
+		for (int i = 0; i < size; i++) {
+			WordCountPair p = new WordCountPair(words[i], counts[i]);
+			p.error = errors[i];
+			lst.add(p);
+		}
+		return lst;
+	}
+}
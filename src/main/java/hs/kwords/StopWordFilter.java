@@ -8,8 +8,10 @@ import java.util.HashSet;
 import java.util.Scanner;
 import java.util.Set;
 
-public class StopWordFilter implements TokenFilter {
+public class StopWordFilter implements BatchFilter {
 	Set<String> stopWords = new HashSet<String>();
+	// the same words, for lookups on batches
+	StopWordSet stopWordSet;
 
 	public StopWordFilter(String stopWordsPath) throws FileNotFoundException {
 		File f = new File(stopWordsPath);
@@ -22,6 +24,7 @@ public class StopWordFilter implements TokenFilter {
 			}
 			sc.close();
 		}
+		stopWordSet = new StopWordSet(stopWords);
 	}
 
 	private boolean isStopWord(String w) {
@@ -34,4 +37,19 @@ public class StopWordFilter implements TokenFilter {
 		} else
 			return w;
 	}
+
+	public void filter(TokenBatch batch) {
+		int n = 0;
+		for (int i = 0; i < batch.size(); i++) {
+			if (!stopWordSet.contains(batch.array(), batch.offset(i),
+					batch.length(i)))
+				batch.move(i, n++);
+		}
+		batch.truncate(n);
+	}
+
+	@Override
+	public String toString() {
+		return "StopWordFilter[" + stopWordSet + "]";
+	}
 }
\ No newline at end of file
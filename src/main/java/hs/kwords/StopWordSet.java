@@ -0,0 +1,194 @@
+package hs.kwords;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Scanner;
+import java.util.Set;
+
+/**
+ * An immutable set of words behind a minimal perfect hash, built with hash
+ * and displace: words are grouped into buckets by one part of their hash,
+ * and every bucket gets a displacement which sends each of its words to a
+ * slot no other word uses. A lookup is one hash over the chars, one
+ * displacement and one comparison, with no allocation and no probing, and
+ * works on a char array slice as well as on a String.
+ */
+public class StopWordSet {
+	private static final long SEED = 0xcbf29ce484222325L;
+	private static final long PRIME = 0x100000001b3L;
+	private static final int MAX_DISPLACEMENT = 1 << 24;
+
+	private int[] displacements;
+	private char[][] slots;
+
+	/**
+	 * The whitespace separated words of a file, or no words if the file does
+	 * not exist.
+	 */
+	public static StopWordSet read(String path) throws FileNotFoundException {
+		List<String> words = new ArrayList<String>();
+		File f = new File(path);
+		if (f.exists()) {
+			Scanner sc = new Scanner(new FileInputStream(f));
+			while (sc.hasNext()) {
+				words.add(sc.next());
+			}
+			sc.close();
+		}
+		return new StopWordSet(words);
+	}
+
+	public StopWordSet(Collection<String> words) {
+		Set<String> unique = new LinkedHashSet<String>(words);
+		int n = unique.size();
+		slots = new char[n][];
+		displacements = new int[Math.max(1, n / 2)];
+		if (n == 0)
+			return;
+
+		final List<List<String>> buckets = new ArrayList<List<String>>();
+		for (int i = 0; i < displacements.length; i++) {
+			buckets.add(new ArrayList<String>());
+		}
+		for (String w : unique) {
+			buckets.get(bucket(hash(w))).add(w);
+		}
+		// the largest buckets are the hardest to place, place them first
+		Integer[] order = new Integer[buckets.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return buckets.get(b).size() - buckets.get(a).size();
+			}
+		});
+
+		int[] taken = new int[buckets.get(order[0]).size()];
+		for (int b : order) {
+			List<String> bucket = buckets.get(b);
+			if (bucket.isEmpty())
+				break;
+			int d = 0;
+			while (!place(bucket, d, taken)) {
+				if (++d == MAX_DISPLACEMENT)
+					throw new IllegalStateException(
+							"No perfect hash found for " + bucket);
+			}
+			displacements[b] = d;
+			for (int i = 0; i < bucket.size(); i++) {
+				slots[taken[i]] = bucket.get(i).toCharArray();
+			}
+		}
+	}
+
+	/*
+	 * true if all words of the bucket land on distinct free slots with
+	 * displacement d. The slots are left in taken.
+	 */
+	private boolean place(List<String> bucket, int d, int[] taken) {
+		for (int i = 0; i < bucket.size(); i++) {
+			int s = slot(hash(bucket.get(i)), d);
+			if (slots[s] != null)
+				return false;
+			for (int j = 0; j < i; j++) {
+				if (taken[j] == s)
+					return false;
+			}
+			taken[i] = s;
+		}
+		return true;
+	}
+
+	/*
+	 * 64 bit FNV-1a over the chars, so that words which share a String
+	 * hashCode can still be told apart, and a final mix so that the last
+	 * chars reach the high bits too
+	 */
+	private static long hash(CharSequence s) {
+		long h = SEED;
+		for (int i = 0; i < s.length(); i++) {
+			h = (h ^ s.charAt(i)) * PRIME;
+		}
+		return mix(h);
+	}
+
+	private static long hash(char[] buf, int off, int len) {
+		long h = SEED;
+		for (int i = off, end = off + len; i < end; i++) {
+			h = (h ^ buf[i]) * PRIME;
+		}
+		return mix(h);
+	}
+
+	private static long mix(long x) {
+		x = (x ^ (x >>> 33)) * 0xff51afd7ed558ccdL;
+		return x ^ (x >>> 33);
+	}
+
+	/*
+	 * both map 32 bits of the hash to [0, n) with a multiply and a shift
+	 * instead of a division
+	 */
+	private int bucket(long h) {
+		return (int) ((h & 0xffffffffL) * displacements.length >>> 32);
+	}
+
+	private int slot(long h, int d) {
+		long x = mix(h + d * 0x9e3779b97f4a7c15L);
+		return (int) ((x >>> 32) * slots.length >>> 32);
+	}
+
+	public int size() {
+		return slots.length;
+	}
+
+	/**
+	 * The number of words and a hash over all of them, so that two sets of
+	 * the same words print the same.
+	 */
+	@Override
+	public String toString() {
+		long fingerprint = 0;
+		for (char[] w : slots) {
+			fingerprint += hash(w, 0, w.length);
+		}
+		return "StopWordSet[" + slots.length + " words, "
+				+ Long.toHexString(fingerprint) + "]";
+	}
+
+	public boolean contains(char[] buf, int off, int len) {
+		if (slots.length == 0)
+			return false;
+		long h = hash(buf, off, len);
+		char[] w = slots[slot(h, displacements[bucket(h)])];
+		if (w.length != len)
+			return false;
+		for (int i = 0; i < len; i++) {
+			if (w[i] != buf[off + i])
+				return false;
+		}
+		return true;
+	}
+
+	public boolean contains(CharSequence s) {
+		if (slots.length == 0)
+			return false;
+		long h = hash(s);
+		char[] w = slots[slot(h, displacements[bucket(h)])];
+		if (w.length != s.length())
+			return false;
+		for (int i = 0; i < w.length; i++) {
+			if (w[i] != s.charAt(i))
+				return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,56 @@
+package hs.kwords;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+/**
+ * Reads runs written by TextRunWriter, one "word\tcount" record per line.
+ */
+public class TextRunReader implements RunReader {
+	private BufferedReader reader;
+	private String word;
+	private int count;
+	private byte[] key = new byte[64];
+	private int keyLength;
+
+	public TextRunReader(File f, int bufferSize) throws IOException {
+		reader = new BufferedReader(new InputStreamReader(new FileInputStream(
+				f), "UTF-8"), bufferSize);
+	}
+
+	public boolean next() throws IOException {
+		String l = reader.readLine();
+		if (l == null)
+			return false;
+		int tab = l.lastIndexOf('\t');
+		word = l.substring(0, tab);
+		count = Integer.parseInt(l.substring(tab + 1));
+		if (key.length < Utf8.maxBytes(word))
+			key = new byte[Utf8.maxBytes(word)];
+		keyLength = Utf8.encode(word, key, 0);
+		return true;
+	}
+
+	public byte[] keyBytes() {
+		return key;
+	}
+
+	public int keyLength() {
+		return keyLength;
+	}
+
+	public String word() {
+		return word;
+	}
+
+	public int count() {
+		return count;
+	}
+
+	public void close() throws IOException {
+		reader.close();
+	}
+}
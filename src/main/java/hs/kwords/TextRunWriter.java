@@ -0,0 +1,43 @@
+package hs.kwords;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Writes one "word\tcount" record per line.
+ */
+public class TextRunWriter implements RunWriter {
+	private Writer writer;
+	private long bytesWritten = 0;
+
+	public TextRunWriter(File f, int bufferSize) throws IOException {
+		writer = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(f), "UTF-8"), bufferSize);
+	}
+
+	public void write(String word, int count) throws IOException {
+		String c = Integer.toString(count);
+		bytesWritten += Utf8.encodedLength(word) + c.length() + 2;
+		writer.write(word);
+		writer.write('\t');
+		writer.write(c);
+		writer.write('\n');
+	}
+
+	public void write(byte[] key, int off, int len, int count)
+			throws IOException {
+		write(Utf8.decode(key, off, len), count);
+	}
+
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	public void close() throws IOException {
+		writer.close();
+	}
+}
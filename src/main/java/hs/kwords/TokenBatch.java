@@ -0,0 +1,158 @@
+package hs.kwords;
+
+import java.util.Arrays;
+
+/**
+ * A reusable batch of tokens. The characters of all tokens are kept in one
+ * shared char array and every token is an offset and a length into it, so
+ * filling a batch allocates nothing once the arrays have grown to size.
+ * Tokenizers fill batches, filters drop or rewrite tokens in a loop over the
+ * whole batch, and strategies count them without creating Strings.
+ */
+public class TokenBatch {
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	private char[] chars;
+	private int charsUsed = 0;
+	private int[] offsets;
+	private int[] lengths;
+	private int size = 0;
+	private int capacity;
+
+	public TokenBatch() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * capacity is the number of tokens a tokenizer puts in one batch.
+	 */
+	public TokenBatch(int capacity) {
+		this.capacity = capacity;
+		this.chars = new char[capacity * 8];
+		this.offsets = new int[capacity];
+		this.lengths = new int[capacity];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int capacity() {
+		return capacity;
+	}
+
+	public boolean isFull() {
+		return size >= capacity;
+	}
+
+	public void clear() {
+		size = 0;
+		charsUsed = 0;
+	}
+
+	/**
+	 * The shared char array. Only valid until the next add.
+	 */
+	public char[] array() {
+		return chars;
+	}
+
+	public int offset(int i) {
+		return offsets[i];
+	}
+
+	public int length(int i) {
+		return lengths[i];
+	}
+
+	public String toString(int i) {
+		return new String(chars, offsets[i], lengths[i]);
+	}
+
+	private int reserve(int len) {
+		if (charsUsed + len > chars.length)
+			chars = Arrays.copyOf(chars,
+					Math.max(charsUsed + len, chars.length * 2));
+		if (size == offsets.length) {
+			offsets = Arrays.copyOf(offsets, size * 2);
+			lengths = Arrays.copyOf(lengths, size * 2);
+		}
+		int off = charsUsed;
+		charsUsed += len;
+		return off;
+	}
+
+	/**
+	 * Appends a copy of src[off, off + len).
+	 */
+	public void add(char[] src, int off, int len) {
+		int at = reserve(len);
+		System.arraycopy(src, off, chars, at, len);
+		offsets[size] = at;
+		lengths[size] = len;
+		size++;
+	}
+
+	/*
+	 * appends a token of len chars, which the caller writes into array() at
+	 * the returned offset
+	 */
+	int addUninitialized(int len) {
+		int at = reserve(len);
+		offsets[size] = at;
+		lengths[size] = len;
+		size++;
+		return at;
+	}
+
+	/*
+	 * drops the token added last, and its chars if nothing was added behind
+	 * them
+	 */
+	void removeLast() {
+		size--;
+		if (offsets[size] + lengths[size] == charsUsed)
+			charsUsed = offsets[size];
+	}
+
+	public void add(String s) {
+		int at = reserve(s.length());
+		s.getChars(0, s.length(), chars, at);
+		offsets[size] = at;
+		lengths[size] = s.length();
+		size++;
+	}
+
+	/**
+	 * Replaces token i by s, whose chars are appended to the shared array.
+	 */
+	public void set(int i, String s) {
+		int at = reserve(s.length());
+		s.getChars(0, s.length(), chars, at);
+		offsets[i] = at;
+		lengths[i] = s.length();
+	}
+
+	public boolean equals(int i, String s) {
+		if (lengths[i] != s.length())
+			return false;
+		for (int j = 0, off = offsets[i]; j < lengths[i]; j++) {
+			if (chars[off + j] != s.charAt(j))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Makes token to a copy of token from. Filters drop tokens by moving the
+	 * kept ones down and calling truncate() with their number.
+	 */
+	public void move(int from, int to) {
+		offsets[to] = offsets[from];
+		lengths[to] = lengths[from];
+	}
+
+	public void truncate(int n) {
+		size = n;
+	}
+}
@@ -5,15 +5,40 @@ import java.util.NoSuchElementException;
 public class TokenStream {
 	TokenFilter[] tokFilters = null;
 	Tokenizer tokenizer = null;
+	// set when the first filter can work on the tokenizer's slices
+	CharTokenizer sliceTokenizer = null;
+	SliceFilter sliceFilter = null;
 
 	public TokenStream(Tokenizer tokenizer, TokenFilter... filters) {
 		this.tokenizer = tokenizer;
 		this.tokFilters = filters;
+		if (tokenizer instanceof CharTokenizer && filters.length > 0
+				&& filters[0] instanceof SliceFilter) {
+			this.sliceTokenizer = (CharTokenizer) tokenizer;
+			this.sliceFilter = (SliceFilter) filters[0];
+		}
 	}
 
 	String nextToken = null;
 
+	private boolean moveNextSlice() {
+		CharSlice slice;
+		while ((slice = sliceTokenizer.nextSlice()) != null) {
+			String x = sliceFilter.filter(slice);
+			for (int i = 1; x != null && i < tokFilters.length; i++) {
+				x = tokFilters[i].filter(x);
+			}
+			if (x != null) {
+				nextToken = x;
+				return true;
+			}
+		}
+		return false;
+	}
+
 	private boolean moveNext() {
+		if (sliceTokenizer != null)
+			return moveNextSlice();
 		boolean found = false;
 		while (!found) {
 			if (tokenizer.hasNext()) {
@@ -50,6 +75,60 @@ public class TokenStream {
 		return rv;
 	}
 
+	/*
+	 * run a filter that only knows Strings over a batch
+	 */
+	private static void filterEach(TokenFilter filter, TokenBatch batch) {
+		int n = 0;
+		for (int i = 0; i < batch.size(); i++) {
+			String x = filter.filter(batch.toString(i));
+			if (x != null) {
+				batch.move(i, n);
+				if (!batch.equals(n, x))
+					batch.set(n, x);
+				n++;
+			}
+		}
+		batch.truncate(n);
+	}
+
+	/**
+	 * Clears batch and fills it with the next filtered tokens, a tokenizer
+	 * batch at a time, with every filter running over the whole batch.
+	 * Returns false at the end of input. Can be mixed with next(), but not
+	 * from several threads.
+	 */
+	public boolean nextBatch(TokenBatch batch) {
+		batch.clear();
+		if (nextToken != null) {
+			// already filtered by hasNext()
+			batch.add(nextToken);
+			nextToken = null;
+			return true;
+		}
+		while (tokenizer.fill(batch)) {
+			for (TokenFilter filter : tokFilters) {
+				if (filter instanceof BatchFilter)
+					((BatchFilter) filter).filter(batch);
+				else
+					filterEach(filter, batch);
+				if (batch.size() == 0)
+					break;
+			}
+			if (batch.size() > 0)
+				return true;
+			batch.clear();
+		}
+		return false;
+	}
+
+	/**
+	 * Number of input bytes the tokenizer consumed, or -1 if unknown.
+	 */
+	public long getBytesRead() {
+		return tokenizer.getBytesRead();
+	}
+
 	public String next() {
 		if (nextToken == null) {
 			boolean found = moveNext();
@@ -1,5 +1,6 @@
 package hs.kwords;
 
+import java.io.IOException;
 import java.io.InputStream;
 
 public abstract class Tokenizer {
@@ -10,4 +11,31 @@ public abstract class Tokenizer {
 	abstract public boolean hasNext();
 
 	abstract public String next();
+
+	/**
+	 * Adds tokens to batch until it is full or the input ends. Returns false
+	 * if no token was added.
+	 */
+	public boolean fill(TokenBatch batch) {
+		int before = batch.size();
+		while (!batch.isFull() && hasNext()) {
+			batch.add(next());
+		}
+		return batch.size() > before;
+	}
+
+	/**
+	 * Number of input bytes consumed so far, or -1 if unknown. Buffering
+	 * tokenizers may be ahead of the tokens returned by up to a buffer.
+	 */
+	public long getBytesRead() {
+		return -1;
+	}
+
+	/**
+	 * Closes the input, if the tokenizer holds it open. Mapped input needs no
+	 * closing.
+	 */
+	public void close() throws IOException {
+	}
 }
\ No newline at end of file
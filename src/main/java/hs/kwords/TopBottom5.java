@@ -4,34 +4,154 @@ import java.io.*;
 import java.util.*;
 
 enum WCStrategy {
-	INMEMORY, EXTERNALSORT
+	ADAPTIVE, INMEMORY, EXTERNALSORT, PARALLEL, APPROXIMATE, MAPREDUCE
 }
 
 public class TopBottom5 {
 
 	public static void main(String[] args) throws FileNotFoundException {
 		String stopWordsFilePath = "stop_words.txt";
-		StopWordFilter stopWordFilter = new StopWordFilter(stopWordsFilePath);
-		LowerCaseFilter lCaseFilter = new LowerCaseFilter();
+		// lower case and stop word filtering in one pass
+		LowerCaseStopWordFilter filter = new LowerCaseStopWordFilter(
+				stopWordsFilePath);
 
 		String inputFilePath = "works-of-shakespeare.txt";
-		WCStrategy wcstrategy = WCStrategy.EXTERNALSORT;
+		WCStrategy wcstrategy = WCStrategy.ADAPTIVE;
+		int threads = Runtime.getRuntime().availableProcessors();
+		// worker processes of the mapreduce strategy, threads unless given
+		int workers = -1;
+		int reducers = -1;
+		String workDirPath = null;
+		String workerHeap = null;
+		// count sequences of up to this many words when above 0
+		int ngrams = 0;
+		// count only the last so many tokens when above 0
+		long window = 0;
+		long halfLife = 0;
+		// answer queries over HTTP instead of counting once
+		int servePort = -1;
+		int k = WordCountStrategy.DEFAULT_K;
+		int fanIn = KWayMerger.DEFAULT_FAN_IN;
+		RunFormat runFormat = RunFormat.BINARY;
+		// depends on the strategy unless given
+		long memoryBudget = -1;
+		int pipelineDepth = ExternalSortWordCountStrategy.DEFAULT_PIPELINE_DEPTH;
+		boolean tail = false;
+		boolean corpus = false;
+		boolean verbose = false;
+		String indexPath = null;
+		double epsilon = ApproximateWordCountStrategy.DEFAULT_EPSILON;
+		double confidence = 1 - ApproximateWordCountStrategy.DEFAULT_DELTA;
 
-		if (args.length >= 1) {
-			inputFilePath = args[0];
-			if (!new File(inputFilePath).exists()) {
+		// options start with "--", everything else is positional
+		List<String> positional = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--threads") && i + 1 < args.length) {
+				threads = parsePositiveInt("--threads", args[++i]);
+			} else if (args[i].equals("--workers") && i + 1 < args.length) {
+				workers = parsePositiveInt("--workers", args[++i]);
+			} else if (args[i].equals("--reducers") && i + 1 < args.length) {
+				reducers = parsePositiveInt("--reducers", args[++i]);
+			} else if (args[i].equals("--work-dir") && i + 1 < args.length) {
+				workDirPath = args[++i];
+			} else if (args[i].equals("--worker-heap") && i + 1 < args.length) {
+				// passed on as -Xmx, which takes the same suffixes
+				workerHeap = args[++i];
+				parseSize("--worker-heap", workerHeap);
+			} else if (args[i].equals("--serve") && i + 1 < args.length) {
+				servePort = parsePort("--serve", args[++i]);
+			} else if (args[i].equals("--ngrams") && i + 1 < args.length) {
+				ngrams = parsePositiveInt("--ngrams", args[++i]);
+				if (ngrams > NGramWordCountStrategy.MAX_N) {
+					System.err.println("Invalid value for --ngrams: " + ngrams);
+					System.exit(-1);
+				}
+			} else if (args[i].equals("--window") && i + 1 < args.length) {
+				window = parsePositiveInt("--window", args[++i]);
+			} else if (args[i].equals("--half-life") && i + 1 < args.length) {
+				halfLife = parsePositiveInt("--half-life", args[++i]);
+			} else if (args[i].equals("--k") && i + 1 < args.length) {
+				k = parsePositiveInt("--k", args[++i]);
+			} else if (args[i].equals("--fan-in") && i + 1 < args.length) {
+				fanIn = parsePositiveInt("--fan-in", args[++i]);
+			} else if (args[i].equals("--memory-budget") && i + 1 < args.length) {
+				memoryBudget = parseSize("--memory-budget", args[++i]);
+			} else if (args[i].equals("--pipeline-depth") && i + 1 < args.length) {
+				pipelineDepth = parsePositiveInt("--pipeline-depth", args[++i]);
+			} else if (args[i].equals("--index") && i + 1 < args.length) {
+				indexPath = args[++i];
+			} else if (args[i].equals("--corpus")) {
+				corpus = true;
+			} else if (args[i].equals("--tail")) {
+				tail = true;
+			} else if (args[i].equals("--verbose")) {
+				verbose = true;
+			} else if (args[i].equals("--epsilon") && i + 1 < args.length) {
+				epsilon = parseFraction("--epsilon", args[++i]);
+			} else if (args[i].equals("--confidence") && i + 1 < args.length) {
+				confidence = parseFraction("--confidence", args[++i]);
+			} else if (args[i].equals("--run-format") && i + 1 < args.length) {
+				String formatArg = args[++i];
+				if (formatArg.equalsIgnoreCase("text")) {
+					runFormat = RunFormat.TEXT;
+				} else if (formatArg.equalsIgnoreCase("binary")) {
+					runFormat = RunFormat.BINARY;
+				} else if (formatArg.equalsIgnoreCase("compressed")) {
+					runFormat = RunFormat.COMPRESSED;
+				} else {
+					System.err.println("Invalid value for --run-format: "
+							+ formatArg);
+					System.exit(-1);
+				}
+			} else if (args[i].startsWith("--")) {
+				System.err.println("Invalid option: " + args[i]);
+				System.exit(-1);
+			} else {
+				positional.add(args[i]);
+			}
+		}
+
+		if (servePort >= 0) {
+			serve(stopWordsFilePath, servePort, threads, memoryBudget);
+			return;
+		}
+
+		if (ngrams > 0 && (corpus || tail)) {
+			System.err.println("--ngrams can not be combined with --corpus "
+					+ "or --tail");
+			System.exit(-1);
+		}
+		if ((window > 0 || halfLife > 0) && (corpus || tail || ngrams > 0)) {
+			System.err.println("--window and --half-life can not be combined "
+					+ "with --corpus, --tail or --ngrams");
+			System.exit(-1);
+		}
+
+		if (positional.size() >= 1) {
+			inputFilePath = positional.get(0);
+			String existing = corpus && inputFilePath.startsWith("@") ? inputFilePath
+					.substring(1) : inputFilePath;
+			if (!new File(existing).exists()) {
 				System.err
 						.println("This file does not exist: " + inputFilePath);
 				System.exit(-1);
 			}
 		}
 
-		if (args.length >= 2) {
-			String strategyArg = args[1];
-			if (strategyArg.equalsIgnoreCase("inmemory")) {
+		if (positional.size() >= 2) {
+			String strategyArg = positional.get(1);
+			if (strategyArg.equalsIgnoreCase("adaptive")) {
+				wcstrategy = WCStrategy.ADAPTIVE;
+			} else if (strategyArg.equalsIgnoreCase("inmemory")) {
 				wcstrategy = WCStrategy.INMEMORY;
 			} else if (strategyArg.equalsIgnoreCase("externalsort")) {
 				wcstrategy = WCStrategy.EXTERNALSORT;
+			} else if (strategyArg.equalsIgnoreCase("parallel")) {
+				wcstrategy = WCStrategy.PARALLEL;
+			} else if (strategyArg.equalsIgnoreCase("approximate")) {
+				wcstrategy = WCStrategy.APPROXIMATE;
+			} else if (strategyArg.equalsIgnoreCase("mapreduce")) {
+				wcstrategy = WCStrategy.MAPREDUCE;
 			} else {
 				System.err.println("Invalid argument for strategy: "
 						+ strategyArg);
@@ -39,22 +159,130 @@ public class TopBottom5 {
 			}
 		}
 
-		InputStream is = new FileInputStream(inputFilePath);
-		Tokenizer tokenizer = new EnglishTokenizer(is);
-		TokenStream ts = new TokenStream(tokenizer, lCaseFilter, stopWordFilter);
-
 		// assign straegy
 		WordCountStrategy strategy = null;
-		switch (wcstrategy) {
-		case EXTERNALSORT:
-			strategy = new ExternalSortWordCountStrategy(ts);
-			break;
-		case INMEMORY:
-			strategy = new InMemoryWordCountStrategy(ts);
-			break;
-		default:
-			strategy = new ExternalSortWordCountStrategy(ts);
-			break;
+		CorpusWordCountStrategy corpusStrategy = null;
+		if (corpus) {
+			// every document is read once, counted on its own worker
+			List<File> documents = null;
+			try {
+				documents = CorpusWordCountStrategy
+						.listDocuments(inputFilePath);
+			} catch (IOException e) {
+				System.err.println("Could not list documents: " + e);
+				System.exit(-1);
+			}
+			corpusStrategy = new CorpusWordCountStrategy(documents, threads, k,
+					filter);
+			strategy = corpusStrategy;
+		} else if ((tail || wcstrategy == WCStrategy.PARALLEL
+				|| wcstrategy == WCStrategy.MAPREDUCE)
+				&& InputFiles.isGzip(new File(inputFilePath))) {
+			System.err.println("--tail and the parallel and mapreduce "
+					+ "strategies need an uncompressed file: " + inputFilePath);
+			System.exit(-1);
+		} else if (tail) {
+			// resumes from the state of the previous run on this file, which
+			// is told apart from files of the same name by its canonical path
+			File input = new File(inputFilePath);
+			File stateFile = null;
+			try {
+				stateFile = new File("tmp", input.getName() + "-"
+						+ Integer.toHexString(input.getCanonicalPath()
+								.hashCode()) + ".wcstate");
+			} catch (IOException e) {
+				System.err.println("Could not resolve " + inputFilePath + ": "
+						+ e);
+				System.exit(-1);
+			}
+			strategy = new IncrementalWordCountStrategy(input, stateFile, k,
+					filter);
+		} else if (window > 0 || halfLife > 0) {
+			// without --window the decayed counts are all that matter
+			long span = window > 0 ? window : Long.MAX_VALUE;
+			WindowedWordCountStrategy windowed = new WindowedWordCountStrategy(
+					new TokenStream(openTokenizer(inputFilePath), filter), k,
+					WindowedWordCountStrategy.Unit.TOKENS, span, (int) Math.min(
+							span, WindowedWordCountStrategy.DEFAULT_BUCKETS));
+			windowed.setHalfLife(halfLife);
+			strategy = windowed;
+		} else if (ngrams > 0) {
+			if (runFormat == RunFormat.TEXT) {
+				System.err.println("n-grams can not be spilled as text runs");
+				System.exit(-1);
+			}
+			NGramWordCountStrategy ngram = new NGramWordCountStrategy(
+					new TokenStream(openTokenizer(inputFilePath), filter),
+					ngrams, k);
+			ngram.setMergeFanIn(Math.max(2, fanIn));
+			ngram.setRunFormat(runFormat);
+			if (memoryBudget > 0)
+				ngram.setMemoryBudget(memoryBudget);
+			ngram.setVerbose(verbose);
+			strategy = ngram;
+		} else {
+			Tokenizer tokenizer = openTokenizer(inputFilePath);
+			TokenStream ts = new TokenStream(tokenizer, filter);
+
+			switch (wcstrategy) {
+			case ADAPTIVE: {
+				AdaptiveWordCountStrategy adaptive = new AdaptiveWordCountStrategy(
+						ts, k);
+				adaptive.setMergeFanIn(Math.max(2, fanIn));
+				adaptive.setRunFormat(runFormat);
+				if (memoryBudget > 0)
+					adaptive.setMemoryBudget(memoryBudget);
+				adaptive.setPipelineDepth(pipelineDepth);
+				adaptive.setVerbose(verbose);
+				if (indexPath != null)
+					adaptive.setIndexFile(new File(indexPath));
+				strategy = adaptive;
+			}
+				break;
+			case EXTERNALSORT: {
+				ExternalSortWordCountStrategy external = new ExternalSortWordCountStrategy(
+						ts, k);
+				external.setMergeFanIn(Math.max(2, fanIn));
+				external.setRunFormat(runFormat);
+				if (memoryBudget > 0)
+					external.setMemoryBudget(memoryBudget);
+				external.setPipelineDepth(pipelineDepth);
+				external.setVerbose(verbose);
+				if (indexPath != null)
+					external.setIndexFile(new File(indexPath));
+				strategy = external;
+			}
+				break;
+			case INMEMORY:
+				strategy = new InMemoryWordCountStrategy(ts, k);
+				break;
+			case PARALLEL:
+				strategy = new ParallelWordCountStrategy(new File(inputFilePath),
+						threads, k, filter);
+				break;
+			case APPROXIMATE:
+				strategy = new ApproximateWordCountStrategy(ts, k, epsilon,
+						1 - confidence);
+				break;
+			case MAPREDUCE: {
+				int w = workers > 0 ? workers : threads;
+				MapReduceWordCountStrategy mapReduce = new MapReduceWordCountStrategy(
+						new File(inputFilePath), w, reducers > 0 ? reducers : w,
+						k, stopWordsFilePath);
+				if (workDirPath != null)
+					mapReduce.setWorkDir(new File(workDirPath));
+				if (workerHeap != null)
+					mapReduce.setWorkerHeap(workerHeap);
+				if (memoryBudget > 0)
+					mapReduce.setMemoryBudget(memoryBudget);
+				mapReduce.setVerbose(verbose);
+				strategy = mapReduce;
+			}
+				break;
+			default:
+				strategy = new AdaptiveWordCountStrategy(ts, k);
+				break;
+			}
 		}
 
 		// compute frequent word counts
@@ -64,24 +292,168 @@ public class TopBottom5 {
 			e1.printStackTrace();
 		}
 
-		Map<String, List<WordCountPair>> rv = strategy.get();
+		if (corpusStrategy != null) {
+			for (Map.Entry<File, Map<String, List<WordCountPair>>> e : corpusStrategy
+					.getDocumentResults().entrySet()) {
+				System.out.println();
+				System.out.println("== " + e.getKey().getPath());
+				printResults(e.getValue(), k);
+			}
+			System.out.println();
+			System.out.println("== All documents");
+		}
+
+		printResults(strategy.get(), k);
+
+		if (halfLife > 0) {
+			System.out.println();
+			System.out.println("Most frequent " + k + " words, decayed with a "
+					+ "half-life of " + halfLife + " tokens");
+			for (WordCountPair e : strategy.get().get("decayed")) {
+				print(e);
+			}
+		}
+
+		for (int n = 2; n <= ngrams; n++) {
+			Map<String, List<WordCountPair>> rv = new HashMap<String, List<WordCountPair>>();
+			rv.put("top", strategy.get().get("top" + n));
+			rv.put("bottom", strategy.get().get("bottom" + n));
+			System.out.println();
+			System.out.println("== " + n + "-grams");
+			printResults(rv, k);
+		}
+
+		if (verbose) {
+			System.out.println();
+			System.out.println(strategy.getMetrics());
+		}
+	}
+
+	private static Tokenizer openTokenizer(String path)
+			throws FileNotFoundException {
+		try {
+			return InputFiles.openTokenizer(new File(path));
+		} catch (FileNotFoundException e) {
+			throw e;
+		} catch (IOException e) {
+			System.err.println("Could not open " + path + ": " + e);
+			System.exit(-1);
+			return null;
+		}
+	}
 
+	private static void serve(String stopWordsFilePath, int port,
+			int threads, long memoryBudget) throws FileNotFoundException {
+		WordCountServer server = new WordCountServer(
+				StopWordSet.read(stopWordsFilePath),
+				memoryBudget > 0 ? memoryBudget : AdaptiveWordCountStrategy
+						.defaultMemoryBudget());
+		try {
+			server.start(port, threads);
+		} catch (IOException e) {
+			System.err.println("Could not listen on port " + port + ": " + e);
+			System.exit(-1);
+		}
+		System.out.println("Listening on http://localhost:"
+				+ server.getPort() + "/");
+	}
+
+	private static void printResults(Map<String, List<WordCountPair>> rv, int k) {
 		List<WordCountPair> top = rv.get("top");
 		List<WordCountPair> bottom = rv.get("bottom");
 
 		System.out.println();
 		System.out.println();
 
-		System.out.println("Most frequent 5 words");
+		System.out.println("Most frequent " + k + " words");
 		for (WordCountPair e : top) {
-			System.out.println(String.format("%s -> %d", e.word, e.count));
+			print(e);
 		}
 
 		System.err.println();
 
-		System.out.println("Least frequent 5 words");
+		System.out.println("Least frequent " + k + " words");
 		for (WordCountPair e : bottom) {
+			print(e);
+		}
+	}
+
+	private static void print(WordCountPair e) {
+		if (e.error > 0) {
+			System.out.println(String.format("%s -> %d (at least %d)", e.word,
+					e.count, e.count - e.error));
+		} else {
 			System.out.println(String.format("%s -> %d", e.word, e.count));
 		}
 	}
+
+	// a number strictly between 0 and 1
+	private static double parseFraction(String option, String value) {
+		double d = 0;
+		try {
+			d = Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			d = 0;
+		}
+		if (!(d > 0 && d < 1)) {
+			System.err.println("Invalid value for " + option + ": " + value);
+			System.exit(-1);
+		}
+		return d;
+	}
+
+	private static int parsePort(String option, String value) {
+		int n = -1;
+		try {
+			n = Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			n = -1;
+		}
+		if (n < 0 || n > 65535) {
+			System.err.println("Invalid value for " + option + ": " + value);
+			System.exit(-1);
+		}
+		return n;
+	}
+
+	private static int parsePositiveInt(String option, String value) {
+		int n = 0;
+		try {
+			n = Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			n = 0;
+		}
+		if (n <= 0) {
+			System.err.println("Invalid value for " + option + ": " + value);
+			System.exit(-1);
+		}
+		return n;
+	}
+
+	// a number of bytes, optionally followed by k, m or g
+	private static long parseSize(String option, String value) {
+		long multiplier = 1;
+		String digits = value;
+		char unit = value.isEmpty() ? ' ' : Character.toLowerCase(value
+				.charAt(value.length() - 1));
+		if (unit == 'k' || unit == 'm' || unit == 'g') {
+			multiplier = unit == 'k' ? 1L << 10 : unit == 'm' ? 1L << 20
+					: 1L << 30;
+			digits = value.substring(0, value.length() - 1);
+		}
+		long n = 0;
+		try {
+			n = Math.multiplyExact(Long.parseLong(digits), multiplier);
+		} catch (NumberFormatException e) {
+			n = 0;
+		} catch (ArithmeticException e) {
+			// too large to count in bytes
+			n = 0;
+		}
+		if (n <= 0) {
+			System.err.println("Invalid value for " + option + ": " + value);
+			System.exit(-1);
+		}
+		return n;
+	}
 }
@@ -0,0 +1,176 @@
+package hs.kwords;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Picks the K most and K least frequent words in one pass, using two heaps
+ * bounded to K entries each, so n offers cost O(n log K). Ties on count are
+ * broken by the word, which keeps the result independent of the order in
+ * which words are offered. Words are compared and kept as UTF-8 bytes, so
+ * only the K words of each list are ever decoded to Strings.
+ */
+public class TopKSelector {
+	// most frequent first
+	static final Comparator<WordCountPair> TOP_ORDER = new Comparator<WordCountPair>() {
+		public int compare(WordCountPair o1, WordCountPair o2) {
+			if (o1.count != o2.count)
+				return o1.count > o2.count ? -1 : 1;
+			return o1.word.compareTo(o2.word);
+		}
+	};
+
+	// least frequent first
+	static final Comparator<WordCountPair> BOTTOM_ORDER = new Comparator<WordCountPair>() {
+		public int compare(WordCountPair o1, WordCountPair o2) {
+			if (o1.count != o2.count)
+				return o1.count < o2.count ? -1 : 1;
+			return o1.word.compareTo(o2.word);
+		}
+	};
+
+	/*
+	 * a word kept in one of the heaps, as UTF-8 bytes until top() or
+	 * bottom() decode it
+	 */
+	private static class Candidate {
+		byte[] key;
+		int count;
+
+		Candidate(byte[] key, int count) {
+			this.key = key;
+			this.count = count;
+		}
+	}
+
+	// heads of both heaps are the entries that get evicted first
+	private static final Comparator<Candidate> TOP_HEAD = new Comparator<Candidate>() {
+		public int compare(Candidate o1, Candidate o2) {
+			return -compareTop(o1.count, o1.key, 0, o1.key.length, o2);
+		}
+	};
+
+	private static final Comparator<Candidate> BOTTOM_HEAD = new Comparator<Candidate>() {
+		public int compare(Candidate o1, Candidate o2) {
+			return -compareBottom(o1.count, o1.key, 0, o1.key.length, o2);
+		}
+	};
+
+	private int k;
+	private PriorityQueue<Candidate> top;
+	private PriorityQueue<Candidate> bottom;
+	private byte[] scratch = new byte[64];
+
+	public TopKSelector(int k) {
+		if (k <= 0)
+			throw new IllegalArgumentException("k must be positive: " + k);
+		this.k = k;
+		this.top = new PriorityQueue<Candidate>(k + 1, TOP_HEAD);
+		this.bottom = new PriorityQueue<Candidate>(k + 1, BOTTOM_HEAD);
+	}
+
+	public int getK() {
+		return k;
+	}
+
+	/*
+	 * the order of TOP_ORDER and BOTTOM_ORDER, between a word given as UTF-8
+	 * bytes and a candidate
+	 */
+	private static int compareTop(int count, byte[] key, int off, int len,
+			Candidate c) {
+		if (count != c.count)
+			return count > c.count ? -1 : 1;
+		return Utf8.compareAsString(key, off, len, c.key, 0, c.key.length);
+	}
+
+	private static int compareBottom(int count, byte[] key, int off, int len,
+			Candidate c) {
+		if (count != c.count)
+			return count < c.count ? -1 : 1;
+		return Utf8.compareAsString(key, off, len, c.key, 0, c.key.length);
+	}
+
+	/**
+	 * Returns false when a word with this count can not make it into either
+	 * list, so callers can skip creating the word string.
+	 */
+	public boolean accepts(int count) {
+		return top.size() < k || bottom.size() < k
+				|| count >= top.peek().count || count <= bottom.peek().count;
+	}
+
+	public void offer(String word, int count) {
+		if (!accepts(count))
+			return;
+		if (scratch.length < Utf8.maxBytes(word))
+			scratch = new byte[Utf8.maxBytes(word)];
+		offer(scratch, 0, Utf8.encode(word, scratch, 0), count);
+	}
+
+	/**
+	 * Offers the UTF-8 encoded word in key[off, off + len). The bytes are only
+	 * copied if the word makes it into a list, and only decoded by top() and
+	 * bottom().
+	 */
+	public void offer(byte[] key, int off, int len, int count) {
+		if (!accepts(count))
+			return;
+		boolean toTop = top.size() < k
+				|| compareTop(count, key, off, len, top.peek()) < 0;
+		boolean toBottom = bottom.size() < k
+				|| compareBottom(count, key, off, len, bottom.peek()) < 0;
+		if (!toTop && !toBottom)
+			return;
+		Candidate c = new Candidate(Arrays.copyOfRange(key, off, off + len),
+				count);
+		if (toTop) {
+			if (top.size() == k)
+				top.poll();
+			top.add(c);
+		}
+		if (toBottom) {
+			if (bottom.size() == k)
+				bottom.poll();
+			bottom.add(c);
+		}
+	}
+
+	public void offerAll(WordCountTable table) {
+		byte[] arena = table.keyArena();
+		for (int id = 0; id < table.size(); id++) {
+			int count = table.count(id);
+			if (accepts(count))
+				offer(arena, table.keyOffset(id), table.keyLength(id), count);
+		}
+	}
+
+	private static List<WordCountPair> sorted(PriorityQueue<Candidate> heap,
+			Comparator<WordCountPair> order) {
+		List<WordCountPair> lst = new ArrayList<WordCountPair>(heap.size());
+		for (Candidate c : heap) {
+			lst.add(new WordCountPair(Utf8.decode(c.key, 0, c.key.length),
+					c.count));
+		}
+		Collections.sort(lst, order);
+		return lst;
+	}
+
+	/**
+	 * The K most frequent words, most frequent first.
+	 */
+	public List<WordCountPair> top() {
+		return sorted(top, TOP_ORDER);
+	}
+
+	/**
+	 * The K least frequent words, least frequent first.
+	 */
+	public List<WordCountPair> bottom() {
+		return sorted(bottom, BOTTOM_ORDER);
+	}
+}
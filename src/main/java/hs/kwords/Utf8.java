@@ -0,0 +1,196 @@
+package hs.kwords;
+
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.Comparator;
+
+/**
+ * UTF-8 helpers that work on caller supplied buffers, so that hot loops do
+ * not need to allocate.
+ */
+public class Utf8 {
+	public static final Charset CHARSET = Charset.forName("UTF-8");
+
+	/**
+	 * Orders strings by code point, which is the same order as comparing their
+	 * UTF-8 bytes unsigned. String.compareTo differs from it for characters
+	 * outside the basic multilingual plane.
+	 */
+	public static final Comparator<String> ORDER = new Comparator<String>() {
+		public int compare(String s1, String s2) {
+			int n = Math.min(s1.length(), s2.length());
+			for (int i = 0; i < n; i++) {
+				char c1 = s1.charAt(i);
+				char c2 = s2.charAt(i);
+				if (c1 != c2)
+					return fixup(c1) - fixup(c2);
+			}
+			return s1.length() - s2.length();
+		}
+	};
+
+	/*
+	 * move surrogates above the rest of the basic multilingual plane
+	 */
+	private static int fixup(char c) {
+		if (c >= 0xe000)
+			return c - 0x800;
+		if (c >= 0xd800)
+			return c + 0x2000;
+		return c;
+	}
+
+	private Utf8() {
+	}
+
+	/**
+	 * Upper bound of the encoded size of s.
+	 */
+	public static int maxBytes(CharSequence s) {
+		return s.length() * 3;
+	}
+
+	/**
+	 * Number of bytes encode() writes for s.
+	 */
+	public static int encodedLength(CharSequence s) {
+		int n = s.length();
+		int len = 0;
+		for (int i = 0; i < n; i++) {
+			char c = s.charAt(i);
+			if (c < 0x80) {
+				len++;
+			} else if (c < 0x800) {
+				len += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < n
+					&& Character.isLowSurrogate(s.charAt(i + 1))) {
+				len += 4;
+				i++;
+			} else if (Character.isSurrogate(c)) {
+				len++;
+			} else {
+				len += 3;
+			}
+		}
+		return len;
+	}
+
+	/**
+	 * Encodes s into dst, which must hold at least maxBytes(s) bytes from off.
+	 * Unpaired surrogates become '?' like String.getBytes() does. Returns the
+	 * number of bytes written.
+	 */
+	public static int encode(CharSequence s, byte[] dst, int off) {
+		int n = s.length();
+		int j = off;
+		for (int i = 0; i < n; i++) {
+			char c = s.charAt(i);
+			if (c < 0x80) {
+				dst[j++] = (byte) c;
+			} else if (c < 0x800) {
+				dst[j++] = (byte) (0xc0 | (c >> 6));
+				dst[j++] = (byte) (0x80 | (c & 0x3f));
+			} else if (Character.isHighSurrogate(c) && i + 1 < n
+					&& Character.isLowSurrogate(s.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, s.charAt(++i));
+				dst[j++] = (byte) (0xf0 | (cp >> 18));
+				dst[j++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+				dst[j++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+				dst[j++] = (byte) (0x80 | (cp & 0x3f));
+			} else if (Character.isSurrogate(c)) {
+				dst[j++] = (byte) '?';
+			} else {
+				dst[j++] = (byte) (0xe0 | (c >> 12));
+				dst[j++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+				dst[j++] = (byte) (0x80 | (c & 0x3f));
+			}
+		}
+		return j - off;
+	}
+
+	/**
+	 * Encodes src[srcOff, srcOff + len) like encode(CharSequence, ...), with
+	 * a plain loop for the leading ASCII chars.
+	 */
+	public static int encode(char[] src, int srcOff, int len, byte[] dst,
+			int off) {
+		int i = 0;
+		while (i < len && src[srcOff + i] < 0x80) {
+			dst[off + i] = (byte) src[srcOff + i];
+			i++;
+		}
+		if (i == len)
+			return len;
+		return i + encode(CharBuffer.wrap(src, srcOff + i, len - i),
+				dst, off + i);
+	}
+
+	public static String decode(byte[] b, int off, int len) {
+		return new String(b, off, len, CHARSET);
+	}
+
+	/**
+	 * True for the single byte characters Character.isWhitespace accepts.
+	 * Bytes of multi-byte characters are never whitespace, so input can be
+	 * split at these bytes without cutting a character in half.
+	 */
+	public static boolean isWhitespace(byte b) {
+		return b == ' ' || (b >= 0x09 && b <= 0x0d) || (b >= 0x1c && b <= 0x1f);
+	}
+
+	/*
+	 * the code point encoded at b[off]
+	 */
+	private static int codePointAt(byte[] b, int off) {
+		int b0 = b[off] & 0xff;
+		if (b0 < 0x80)
+			return b0;
+		if (b0 < 0xe0)
+			return ((b0 & 0x1f) << 6) | (b[off + 1] & 0x3f);
+		if (b0 < 0xf0)
+			return ((b0 & 0x0f) << 12) | ((b[off + 1] & 0x3f) << 6)
+					| (b[off + 2] & 0x3f);
+		return ((b0 & 0x07) << 18) | ((b[off + 1] & 0x3f) << 12)
+				| ((b[off + 2] & 0x3f) << 6) | (b[off + 3] & 0x3f);
+	}
+
+	/**
+	 * Compares two UTF-8 encoded words like String.compareTo compares them
+	 * decoded, without decoding more than the first character that differs.
+	 */
+	public static int compareAsString(byte[] a, int aoff, int alen, byte[] b,
+			int boff, int blen) {
+		int n = Math.min(alen, blen);
+		int i = 0;
+		while (i < n && a[aoff + i] == b[boff + i]) {
+			i++;
+		}
+		if (i == n)
+			return alen - blen;
+		// back to the first byte of the character, which both words share
+		while (i > 0 && (a[aoff + i] & 0xc0) == 0x80) {
+			i--;
+		}
+		int c1 = codePointAt(a, aoff + i);
+		int c2 = codePointAt(b, boff + i);
+		// Strings compare surrogates, which sort below U+E000
+		int u1 = c1 >= 0x10000 ? Character.highSurrogate(c1) : c1;
+		int u2 = c2 >= 0x10000 ? Character.highSurrogate(c2) : c2;
+		return u1 != u2 ? u1 - u2 : c1 - c2;
+	}
+
+	/**
+	 * Compares two byte ranges as unsigned bytes.
+	 */
+	public static int compare(byte[] a, int aoff, int alen, byte[] b,
+			int boff, int blen) {
+		int n = Math.min(alen, blen);
+		for (int i = 0; i < n; i++) {
+			int x = a[aoff + i] & 0xff;
+			int y = b[boff + i] & 0xff;
+			if (x != y)
+				return x - y;
+		}
+		return alen - blen;
+	}
+}
@@ -0,0 +1,242 @@
+package hs.kwords;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.NoSuchElementException;
+
+/**
+ * Splits UTF-8 bytes from a ByteBuffer, e.g. a mapped file, into the same
+ * tokens as CharTokenizer, without decoding the input first. Word ends are
+ * found eight bytes at a time with SWAR arithmetic on longs, where one
+ * subtraction flags every byte below '!'. Words are widened straight into the
+ * batch; only words with punctuation or multi-byte characters take the slow
+ * path, and only words with multi-byte characters are decoded.
+ *
+ * A heap buffer is scanned in its backing array, a direct or mapped buffer is
+ * copied into a reusable window in bulk first.
+ */
+public class Utf8Tokenizer extends Tokenizer {
+	private static final int WINDOW_SIZE = 1 << 16;
+	private static final long ONES = 0x0101010101010101L;
+	private static final long HIGHS = 0x8080808080808080L;
+	private static final VarHandle LONGS = MethodHandles
+			.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+	// bytes a word can hold without any work besides widening them
+	private static final boolean[] PLAIN = new boolean[256];
+
+	static {
+		for (int b = '0'; b < 128; b++) {
+			PLAIN[b] = !CharTokenizer.isPunctuation((char) b);
+		}
+	}
+
+	// the bytes not yet copied to buf, null when scanning a backing array
+	private ByteBuffer in = null;
+	private byte[] buf;
+	private int pos;
+	private int limit;
+	// bytes dropped from the front of buf so far, less the initial offset
+	private long dropped;
+	private char[] chars = new char[64];
+	// tokens scanned ahead for hasNext() and next()
+	private TokenBatch queue = new TokenBatch(64);
+	private int queued = 0;
+
+	/**
+	 * Tokenizes the bytes between the position and the limit of buf, which is
+	 * not modified.
+	 */
+	public Utf8Tokenizer(ByteBuffer buf) {
+		super(null);
+		if (buf.hasArray()) {
+			this.buf = buf.array();
+			this.pos = buf.arrayOffset() + buf.position();
+			this.limit = buf.arrayOffset() + buf.limit();
+			this.dropped = -pos;
+		} else {
+			this.in = buf.duplicate();
+			this.buf = new byte[Math.min(WINDOW_SIZE,
+					Math.max(16, in.remaining()))];
+			this.pos = 0;
+			this.limit = 0;
+			this.dropped = 0;
+		}
+	}
+
+	/*
+	 * keep buf[keep, limit) at the start of the window and copy more input
+	 * behind it. Returns false on end of input.
+	 */
+	private boolean refill(int keep) {
+		if (in == null || !in.hasRemaining())
+			return false;
+		int kept = limit - keep;
+		if (kept == buf.length) {
+			byte[] bigger = new byte[buf.length * 2];
+			System.arraycopy(buf, keep, bigger, 0, kept);
+			buf = bigger;
+		} else if (kept > 0) {
+			System.arraycopy(buf, keep, buf, 0, kept);
+		}
+		dropped += keep;
+		pos -= keep;
+		limit = kept;
+		int n = Math.min(buf.length - limit, in.remaining());
+		in.get(buf, limit, n);
+		limit += n;
+		return true;
+	}
+
+	/*
+	 * the end of the word going on at p, or limit if the window ends first
+	 */
+	private int wordEnd(int p) {
+		while (p + 8 <= limit) {
+			long x = (long) LONGS.get(buf, p);
+			// bytes below '!', all whitespace bytes are among them. A flag
+			// above another flag may be false, the lowest one is always right.
+			long low = (x - '!' * ONES) & ~x & HIGHS;
+			if (low == 0) {
+				p += 8;
+				continue;
+			}
+			p += Long.numberOfTrailingZeros(low) >>> 3;
+			if (Utf8.isWhitespace(buf[p]))
+				return p;
+			// a control byte, which belongs to the word
+			p++;
+		}
+		while (p < limit && !Utf8.isWhitespace(buf[p])) {
+			p++;
+		}
+		return p;
+	}
+
+	/*
+	 * widens the word into the batch, or returns false if it is not all
+	 * plain bytes
+	 */
+	private boolean addPlain(TokenBatch batch, int begin, int end) {
+		int at = batch.addUninitialized(end - begin);
+		char[] a = batch.array();
+		for (int i = begin; i < end; i++) {
+			byte b = buf[i];
+			if (!PLAIN[b & 0xff]) {
+				batch.removeLast();
+				return false;
+			}
+			a[at++] = (char) b;
+		}
+		return true;
+	}
+
+	/*
+	 * decodes the word if it has multi-byte characters, squeezes punctuation
+	 * out and splits it on the whitespace characters which take more than
+	 * one byte
+	 */
+	private void addDirty(TokenBatch batch, int begin, int end) {
+		int len = end - begin;
+		char[] cs;
+		int n;
+		boolean ascii = true;
+		for (int i = begin; i < end; i++) {
+			if (buf[i] < 0) {
+				ascii = false;
+				break;
+			}
+		}
+		if (ascii) {
+			if (chars.length < len)
+				chars = new char[Math.max(len, chars.length * 2)];
+			for (int i = 0; i < len; i++) {
+				chars[i] = (char) buf[begin + i];
+			}
+			cs = chars;
+			n = len;
+		} else {
+			cs = new String(buf, begin, len, StandardCharsets.UTF_8)
+					.toCharArray();
+			n = cs.length;
+		}
+
+		int from = 0;
+		int w = 0;
+		for (int i = 0; i < n; i++) {
+			char c = cs[i];
+			if (Character.isWhitespace(c)) {
+				if (w > from)
+					batch.add(cs, from, w - from);
+				from = w;
+			} else if (!CharTokenizer.isPunctuation(c)) {
+				cs[w++] = c;
+			}
+		}
+		if (w > from)
+			batch.add(cs, from, w - from);
+	}
+
+	private boolean scan(TokenBatch batch) {
+		int before = batch.size();
+		while (!batch.isFull()) {
+			// skip whitespace
+			while (true) {
+				if (pos == limit && !refill(pos))
+					return batch.size() > before;
+				if (!Utf8.isWhitespace(buf[pos]))
+					break;
+				pos++;
+			}
+
+			int begin = pos;
+			int end = wordEnd(begin);
+			while (end == limit) {
+				int scanned = end - begin;
+				if (!refill(begin))
+					break;
+				begin = pos;
+				end = wordEnd(begin + scanned);
+			}
+			pos = end;
+			if (!addPlain(batch, begin, end))
+				addDirty(batch, begin, end);
+		}
+		return batch.size() > before;
+	}
+
+	@Override
+	public boolean fill(TokenBatch batch) {
+		int before = batch.size();
+		while (queued < queue.size() && !batch.isFull()) {
+			batch.add(queue.array(), queue.offset(queued), queue.length(queued));
+			queued++;
+		}
+		scan(batch);
+		return batch.size() > before;
+	}
+
+	public boolean hasNext() {
+		if (queued < queue.size())
+			return true;
+		queue.clear();
+		queued = 0;
+		return scan(queue);
+	}
+
+	public String next() {
+		if (!hasNext())
+			throw new NoSuchElementException("The stream has no next element");
+		return queue.toString(queued++);
+	}
+
+	/**
+	 * Bytes scanned so far, which may be ahead of next() by a few tokens.
+	 */
+	@Override
+	public long getBytesRead() {
+		return dropped + pos;
+	}
+}
@@ -0,0 +1,574 @@
+package hs.kwords;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts the words of a live token stream over a sliding window, the last so
+ * many tokens or milliseconds, and optionally with exponential decay over all
+ * time.
+ *
+ * The window is a ring of buckets, each counting its words in a LongIntTable
+ * keyed by word id. When the oldest bucket falls out of the window its counts
+ * are taken back one by one, so every token is added once and removed once.
+ * Window counts are kept like the Stream-Summary of Space-Saving: words with
+ * equal counts share a group, the groups form a list in count order, and a
+ * count going up or down by one moves its word to the neighbouring group in
+ * O(1). The top and bottom K are then the ends of that list.
+ *
+ * Decayed weights are kept relative to a landmark time, so a token adds
+ * exp(lambda * (t - landmark)) and nothing decays explicitly. All weights
+ * shrink at the same rate, so the decayed top K only changes when a word is
+ * seen, and it is kept in an indexed min-heap of K words.
+ *
+ * All methods but snapshot() and get() must be called from the ingesting
+ * thread. Results are published as an immutable Snapshot through a volatile
+ * field whenever a bucket is completed and at the end of compute(), so
+ * readers never block ingestion.
+ */
+public class WindowedWordCountStrategy implements WordCountStrategy {
+	public static final int DEFAULT_BUCKETS = 16;
+	// words with less decayed weight than this are forgotten
+	private static final double MIN_WEIGHT = 0.01;
+	// rescale the weights before exp() overflows
+	private static final double MAX_SCALE = 1e100;
+
+	/**
+	 * What the window span is measured in.
+	 */
+	public enum Unit {
+		TOKENS, MILLISECONDS
+	}
+
+	/**
+	 * The results at the end of one bucket.
+	 */
+	public static class Snapshot {
+		private final long time;
+		private final long windowTokens;
+		private final List<WordCountPair> top;
+		private final List<WordCountPair> bottom;
+		private final List<WordCountPair> decayedTop;
+
+		Snapshot(long time, long windowTokens, List<WordCountPair> top,
+				List<WordCountPair> bottom, List<WordCountPair> decayedTop) {
+			this.time = time;
+			this.windowTokens = windowTokens;
+			this.top = Collections.unmodifiableList(top);
+			this.bottom = Collections.unmodifiableList(bottom);
+			this.decayedTop = Collections.unmodifiableList(decayedTop);
+		}
+
+		/**
+		 * Tokens seen or the time of the last token, depending on the unit.
+		 */
+		public long getTime() {
+			return time;
+		}
+
+		public long getWindowTokens() {
+			return windowTokens;
+		}
+
+		/**
+		 * The most frequent words in the window. Which of the words tied at
+		 * the last count are taken is unspecified.
+		 */
+		public List<WordCountPair> getTop() {
+			return top;
+		}
+
+		public List<WordCountPair> getBottom() {
+			return bottom;
+		}
+
+		/**
+		 * The words of highest decayed weight, rounded to counts. Empty
+		 * without a half-life.
+		 */
+		public List<WordCountPair> getDecayedTop() {
+			return decayedTop;
+		}
+	}
+
+	private TokenStream ts;
+	private final int K;
+	private final Unit unit;
+	private final int buckets;
+	private final long bucketSpan;
+	private double lambda = 0;
+	private WordCountMetrics metrics = new WordCountMetrics("windowed");
+	private volatile Snapshot snapshot;
+
+	private WordCountTable words = new WordCountTable();
+	private LongIntTable[] ring;
+	private int current = 0;
+	private long bucketEnd;
+	private boolean started = false;
+	private long tokens = 0;
+	private long time = 0;
+	private long windowTokens = 0;
+	// words with a window count above zero
+	private int live = 0;
+	// compact() once the word table has grown past this
+	private int compactAt = 1 << 12;
+
+	// per word id: window count, its group and its neighbours in the group
+	private int[] counts = new int[0];
+	private int[] group = new int[0];
+	private int[] next = new int[0];
+	private int[] prev = new int[0];
+
+	// per group: count, first word, and the groups of next lower and higher
+	// count. Free groups are chained through higher.
+	private int[] groupCount = new int[16];
+	private int[] head = new int[16];
+	private int[] lower = new int[16];
+	private int[] higher = new int[16];
+	private int groupsUsed = 0;
+	private int freeGroup = -1;
+	private int minGroup = -1;
+	private int maxGroup = -1;
+
+	// decayed weights relative to the landmark, and the decayed top K as a
+	// min-heap of word ids with each word's heap slot, or -1
+	private double[] weights = new double[0];
+	private long landmark = 0;
+	private int[] heap;
+	private int[] heapPos = new int[0];
+	private int heapSize = 0;
+
+	/**
+	 * Counts over the last windowSpan tokens or milliseconds, in buckets of
+	 * windowSpan / buckets. The counts cover the current bucket and the
+	 * buckets - 1 before it, so they lag the exact window by less than one
+	 * bucket.
+	 */
+	public WindowedWordCountStrategy(TokenStream ts, int k, Unit unit,
+			long windowSpan, int buckets) {
+		if (buckets < 1 || windowSpan < buckets)
+			throw new IllegalArgumentException("Can not split a window of "
+					+ windowSpan + " into " + buckets + " buckets");
+		this.ts = ts;
+		this.K = k;
+		this.unit = unit;
+		this.buckets = buckets;
+		this.bucketSpan = windowSpan / buckets;
+		this.ring = new LongIntTable[buckets];
+		for (int i = 0; i < buckets; i++) {
+			ring[i] = new LongIntTable();
+		}
+		this.heap = new int[k];
+		publish();
+	}
+
+	public WindowedWordCountStrategy(TokenStream ts, int k, long windowTokens) {
+		this(ts, k, Unit.TOKENS, windowTokens, DEFAULT_BUCKETS);
+	}
+
+	/**
+	 * Also ranks words by a weight which halves every halfLife tokens or
+	 * milliseconds. 0 turns decay off, which is the default.
+	 */
+	public void setHalfLife(long halfLife) {
+		this.lambda = halfLife > 0 ? Math.log(2) / halfLife : 0;
+	}
+
+	/**
+	 * The results as of the end of the last completed bucket, or of
+	 * compute() or publish(). Never blocks.
+	 */
+	public Snapshot snapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Counts the whole stream, with token timestamps from the clock when the
+	 * unit is milliseconds.
+	 */
+	public void compute() {
+		WordCountMetrics.Phase phase = metrics.beginPhase("count");
+		TokenBatch batch = new TokenBatch();
+		long before = tokens;
+		while (ts.nextBatch(batch)) {
+			add(batch);
+		}
+		metrics.addTokens(tokens - before);
+		metrics.addBytesRead(ts.getBytesRead());
+		metrics.recordTable(words);
+		phase.end();
+		publish();
+		metrics.commit();
+	}
+
+	public void add(TokenBatch batch) {
+		add(batch, System.currentTimeMillis());
+	}
+
+	/**
+	 * Counts a batch of tokens seen at timeMillis, which is ignored when the
+	 * window is measured in tokens. Times must not go backwards.
+	 */
+	public void add(TokenBatch batch, long timeMillis) {
+		char[] chars = batch.array();
+		for (int i = 0; i < batch.size(); i++) {
+			advanceTo(unit == Unit.TOKENS ? tokens : timeMillis);
+			int id = words.addAndGetId(chars, batch.offset(i),
+					batch.length(i), 1);
+			if (id == counts.length)
+				grow();
+			ring[current].add(id + 1, 1);
+			increment(id);
+			windowTokens++;
+			tokens++;
+			if (lambda > 0)
+				decay(id);
+		}
+	}
+
+	/**
+	 * Moves the window on to time, dropping the buckets which fall out of
+	 * it, e.g. to age a millisecond window while no tokens come in.
+	 */
+	public void advanceTo(long time) {
+		this.time = time;
+		if (!started) {
+			started = true;
+			bucketEnd = time + bucketSpan;
+			landmark = time;
+			return;
+		}
+		if (time < bucketEnd)
+			return;
+		long steps = (time - bucketEnd) / bucketSpan + 1;
+		for (long i = 0; i < Math.min(steps, buckets); i++) {
+			current = (current + 1) % buckets;
+			expire(ring[current]);
+		}
+		bucketEnd += steps * bucketSpan;
+		if (words.size() > compactAt)
+			compact();
+		publish();
+	}
+
+	private void grow() {
+		int n = Math.max(16, counts.length * 2);
+		counts = Arrays.copyOf(counts, n);
+		group = Arrays.copyOf(group, n);
+		next = Arrays.copyOf(next, n);
+		prev = Arrays.copyOf(prev, n);
+		weights = Arrays.copyOf(weights, n);
+		int old = heapPos.length;
+		heapPos = Arrays.copyOf(heapPos, n);
+		Arrays.fill(heapPos, old, n, -1);
+	}
+
+	private void expire(LongIntTable bucket) {
+		for (int slot = 0; slot < bucket.capacity(); slot++) {
+			long key = bucket.keyAt(slot);
+			if (key == 0)
+				continue;
+			int id = (int) key - 1;
+			for (int c = bucket.countAt(slot); c > 0; c--) {
+				decrement(id);
+			}
+			windowTokens -= bucket.countAt(slot);
+		}
+		bucket.clear();
+	}
+
+	// the count groups
+
+	private int newGroup(int count, int low, int high) {
+		int g;
+		if (freeGroup >= 0) {
+			g = freeGroup;
+			freeGroup = higher[g];
+		} else {
+			if (groupsUsed == groupCount.length) {
+				int n = groupsUsed * 2;
+				groupCount = Arrays.copyOf(groupCount, n);
+				head = Arrays.copyOf(head, n);
+				lower = Arrays.copyOf(lower, n);
+				higher = Arrays.copyOf(higher, n);
+			}
+			g = groupsUsed++;
+		}
+		groupCount[g] = count;
+		head[g] = -1;
+		lower[g] = low;
+		higher[g] = high;
+		if (low >= 0)
+			higher[low] = g;
+		else
+			minGroup = g;
+		if (high >= 0)
+			lower[high] = g;
+		else
+			maxGroup = g;
+		return g;
+	}
+
+	private void link(int id, int g) {
+		group[id] = g;
+		prev[id] = -1;
+		next[id] = head[g];
+		if (head[g] >= 0)
+			prev[head[g]] = id;
+		head[g] = id;
+	}
+
+	/*
+	 * takes the word out of its group, and the group out of the list if it
+	 * is left empty
+	 */
+	private void unlink(int id) {
+		int g = group[id];
+		if (prev[id] >= 0)
+			next[prev[id]] = next[id];
+		else
+			head[g] = next[id];
+		if (next[id] >= 0)
+			prev[next[id]] = prev[id];
+		if (head[g] >= 0)
+			return;
+		if (lower[g] >= 0)
+			higher[lower[g]] = higher[g];
+		else
+			minGroup = higher[g];
+		if (higher[g] >= 0)
+			lower[higher[g]] = lower[g];
+		else
+			maxGroup = lower[g];
+		higher[g] = freeGroup;
+		freeGroup = g;
+	}
+
+	private void increment(int id) {
+		int c = counts[id]++;
+		int target;
+		if (c == 0) {
+			live++;
+			if (minGroup >= 0 && groupCount[minGroup] == 1)
+				target = minGroup;
+			else
+				target = newGroup(1, -1, minGroup);
+		} else {
+			int g = group[id];
+			int high = higher[g];
+			if (high >= 0 && groupCount[high] == c + 1)
+				target = high;
+			else
+				target = newGroup(c + 1, g, high);
+			unlink(id);
+		}
+		link(id, target);
+	}
+
+	private void decrement(int id) {
+		int c = counts[id]--;
+		int g = group[id];
+		if (c == 1) {
+			live--;
+			unlink(id);
+			group[id] = -1;
+			return;
+		}
+		int low = lower[g];
+		int target;
+		if (low >= 0 && groupCount[low] == c - 1)
+			target = low;
+		else
+			target = newGroup(c - 1, low, g);
+		unlink(id);
+		link(id, target);
+	}
+
+	// the decayed top K
+
+	private void decay(int id) {
+		double scale = Math.exp(lambda * (time - landmark));
+		if (scale > MAX_SCALE) {
+			for (int i = 0; i < words.size(); i++) {
+				weights[i] /= scale;
+			}
+			landmark = time;
+			scale = 1;
+		}
+		weights[id] += scale;
+		if (heapPos[id] >= 0) {
+			siftDown(heapPos[id]);
+		} else if (heapSize < K) {
+			heap[heapSize] = id;
+			heapPos[id] = heapSize;
+			siftUp(heapSize++);
+		} else if (weights[id] > weights[heap[0]]) {
+			heapPos[heap[0]] = -1;
+			heap[0] = id;
+			heapPos[id] = 0;
+			siftDown(0);
+		}
+	}
+
+	private void swap(int a, int b) {
+		int t = heap[a];
+		heap[a] = heap[b];
+		heap[b] = t;
+		heapPos[heap[a]] = a;
+		heapPos[heap[b]] = b;
+	}
+
+	private void siftUp(int p) {
+		while (p > 0) {
+			int parent = (p - 1) / 2;
+			if (weights[heap[parent]] <= weights[heap[p]])
+				break;
+			swap(p, parent);
+			p = parent;
+		}
+	}
+
+	private void siftDown(int p) {
+		while (true) {
+			int l = 2 * p + 1;
+			if (l >= heapSize)
+				break;
+			int smallest = l;
+			int r = l + 1;
+			if (r < heapSize && weights[heap[r]] < weights[heap[l]])
+				smallest = r;
+			if (weights[heap[p]] <= weights[heap[smallest]])
+				break;
+			swap(p, smallest);
+			p = smallest;
+		}
+	}
+
+	/*
+	 * forgets the words which are neither in the window nor of any decayed
+	 * weight, giving the others new ids. Runs when the word table has doubled
+	 * since the last time, so its cost is spread over the new words.
+	 */
+	private void compact() {
+		double scale = lambda > 0 ? Math.exp(-lambda * (time - landmark)) : 0;
+		int[] newIds = new int[words.size()];
+		WordCountTable kept = new WordCountTable(live + heapSize);
+		byte[] arena = words.keyArena();
+		for (int id = 0; id < words.size(); id++) {
+			if (counts[id] > 0 || heapPos[id] >= 0
+					|| weights[id] * scale >= MIN_WEIGHT) {
+				newIds[id] = kept.size();
+				kept.add(arena, words.keyOffset(id), words.keyLength(id), 1);
+			} else {
+				newIds[id] = -1;
+			}
+		}
+
+		int n = Math.max(16, kept.size());
+		int[] newCounts = new int[n];
+		int[] newGroup = new int[n];
+		int[] newNext = new int[n];
+		int[] newPrev = new int[n];
+		double[] newWeights = new double[n];
+		int[] newHeapPos = new int[n];
+		Arrays.fill(newHeapPos, -1);
+		for (int id = 0; id < newIds.length; id++) {
+			int to = newIds[id];
+			if (to < 0)
+				continue;
+			newCounts[to] = counts[id];
+			newGroup[to] = group[id];
+			newNext[to] = next[id] >= 0 && counts[id] > 0 ? newIds[next[id]]
+					: -1;
+			newPrev[to] = prev[id] >= 0 && counts[id] > 0 ? newIds[prev[id]]
+					: -1;
+			newWeights[to] = weights[id];
+			newHeapPos[to] = heapPos[id];
+		}
+		for (int g = minGroup; g >= 0; g = higher[g]) {
+			head[g] = newIds[head[g]];
+		}
+		for (int i = 0; i < heapSize; i++) {
+			heap[i] = newIds[heap[i]];
+		}
+		for (int b = 0; b < buckets; b++) {
+			LongIntTable remapped = new LongIntTable(ring[b].size());
+			for (int slot = 0; slot < ring[b].capacity(); slot++) {
+				long key = ring[b].keyAt(slot);
+				if (key != 0)
+					remapped.add(newIds[(int) key - 1] + 1, ring[b]
+							.countAt(slot));
+			}
+			ring[b] = remapped;
+		}
+		words = kept;
+		compactAt = Math.max(1 << 12, 2 * kept.size());
+		counts = newCounts;
+		group = newGroup;
+		next = newNext;
+		prev = newPrev;
+		weights = newWeights;
+		heapPos = newHeapPos;
+	}
+
+	private List<WordCountPair> walk(int from, boolean up) {
+		List<WordCountPair> lst = new ArrayList<WordCountPair>();
+		for (int g = from; g >= 0 && lst.size() < K; g = up ? higher[g]
+				: lower[g]) {
+			for (int id = head[g]; id >= 0 && lst.size() < K; id = next[id]) {
+				lst.add(new WordCountPair(words.word(id), counts[id]));
+			}
+		}
+		return lst;
+	}
+
+	/**
+	 * Publishes the current results to snapshot() and get().
+	 */
+	public void publish() {
+		List<WordCountPair> top = walk(maxGroup, false);
+		List<WordCountPair> bottom = walk(minGroup, true);
+		Collections.sort(top, TopKSelector.TOP_ORDER);
+		Collections.sort(bottom, TopKSelector.BOTTOM_ORDER);
+
+		// heaviest first, by weight rather than by the rounded counts
+		Integer[] ids = new Integer[heapSize];
+		for (int i = 0; i < heapSize; i++) {
+			ids[i] = heap[i];
+		}
+		Arrays.sort(ids, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Double.compare(weights[b], weights[a]);
+			}
+		});
+		List<WordCountPair> decayed = new ArrayList<WordCountPair>();
+		double scale = Math.exp(-lambda * (time - landmark));
+		for (int id : ids) {
+			decayed.add(new WordCountPair(words.word(id), (int) Math
+					.round(weights[id] * scale)));
+		}
+		snapshot = new Snapshot(unit == Unit.TOKENS ? tokens : time,
+				windowTokens, top, bottom, decayed);
+	}
+
+	/**
+	 * The last published snapshot as "top", "bottom" and "decayed".
+	 */
+	public Map<String, List<WordCountPair>> get() {
+		Snapshot s = snapshot;
+		Map<String, List<WordCountPair>> rv = new HashMap<String, List<WordCountPair>>();
+		rv.put("top", s.getTop());
+		rv.put("bottom", s.getBottom());
+		rv.put("decayed", s.getDecayedTop());
+		return rv;
+	}
+
+	public WordCountMetrics getMetrics() {
+		return metrics;
+	}
+}
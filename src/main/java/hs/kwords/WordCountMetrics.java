@@ -0,0 +1,264 @@
+package hs.kwords;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * What a word count did: tokens and bytes consumed, runs spilled and how well
+ * they compressed, merge passes, the largest count table held and the wall
+ * time of every phase. Strategies fill it in as they go, and it can be read
+ * after compute().
+ *
+ * Every phase and spilled run is also published as a JDK Flight Recorder
+ * event, and commit() publishes the totals, so a recording started with
+ * -XX:StartFlightRecording shows them without any logging. Events cost next
+ * to nothing while no recording is running.
+ */
+public class WordCountMetrics {
+	private String strategy;
+	private long tokens = 0;
+	private long bytesRead = 0;
+	private int runsSpilled = 0;
+	private long bytesSpilled = 0;
+	private long bytesSpilledUncompressed = 0;
+	private int mergePasses = 0;
+	private int peakTableSize = 0;
+	private long peakTableBytes = 0;
+	private Map<String, Long> phaseNanos = new LinkedHashMap<String, Long>();
+
+	public WordCountMetrics(String strategy) {
+		this.strategy = strategy;
+	}
+
+	/**
+	 * A running phase, ended by end().
+	 */
+	public class Phase {
+		private String name;
+		private long start;
+		private long startTokens;
+		private long startBytes;
+		private WordCountPhaseEvent event = new WordCountPhaseEvent();
+
+		Phase(String name) {
+			this.name = name;
+			synchronized (WordCountMetrics.this) {
+				startTokens = tokens;
+				startBytes = bytesRead;
+			}
+			event.begin();
+			start = System.nanoTime();
+		}
+
+		public void end() {
+			long elapsed = System.nanoTime() - start;
+			event.end();
+			synchronized (WordCountMetrics.this) {
+				Long before = phaseNanos.get(name);
+				phaseNanos.put(name, (before == null ? 0 : before) + elapsed);
+				if (event.shouldCommit()) {
+					event.strategy = strategy;
+					event.phase = name;
+					event.tokens = tokens - startTokens;
+					event.bytesRead = bytesRead - startBytes;
+					event.commit();
+				}
+			}
+		}
+	}
+
+	public Phase beginPhase(String name) {
+		return new Phase(name);
+	}
+
+	public synchronized void addTokens(long n) {
+		tokens += n;
+	}
+
+	public synchronized void addBytesRead(long n) {
+		if (n > 0)
+			bytesRead += n;
+	}
+
+	/*
+	 * spilling a run is timed from here to runSpilled()
+	 */
+	RunSpilledEvent beginSpill() {
+		RunSpilledEvent event = new RunSpilledEvent();
+		event.begin();
+		return event;
+	}
+
+	/*
+	 * bytes is the size of the run file, uncompressed what the writer wrote
+	 * before compression
+	 */
+	synchronized void runSpilled(RunSpilledEvent event, int run, int words,
+			long bytes, long uncompressed) {
+		runsSpilled++;
+		bytesSpilled += bytes;
+		bytesSpilledUncompressed += uncompressed;
+		event.end();
+		if (event.shouldCommit()) {
+			event.strategy = strategy;
+			event.run = run;
+			event.words = words;
+			event.bytes = bytes;
+			event.uncompressedBytes = uncompressed;
+			event.commit();
+		}
+	}
+
+	/*
+	 * runs spilled elsewhere, e.g. by worker processes, whose events were
+	 * published there
+	 */
+	synchronized void addSpills(int runs, long bytes, long uncompressed) {
+		runsSpilled += runs;
+		bytesSpilled += bytes;
+		bytesSpilledUncompressed += uncompressed;
+	}
+
+	public synchronized void setMergePasses(int mergePasses) {
+		this.mergePasses = mergePasses;
+	}
+
+	/**
+	 * Call with every table at its largest, e.g. before it is spilled.
+	 */
+	public synchronized void recordTable(WordCountTable table) {
+		peakTableSize = Math.max(peakTableSize, table.size());
+		peakTableBytes = Math.max(peakTableBytes, table.bytesUsed());
+	}
+
+	/**
+	 * Publishes the totals as a Flight Recorder event.
+	 */
+	public synchronized void commit() {
+		WordCountSummaryEvent event = new WordCountSummaryEvent();
+		if (!event.shouldCommit())
+			return;
+		event.strategy = strategy;
+		event.tokens = tokens;
+		event.bytesRead = bytesRead;
+		event.tokensPerSecond = getTokensPerSecond();
+		event.runsSpilled = runsSpilled;
+		event.bytesSpilled = bytesSpilled;
+		event.spillCompressionRatio = getSpillCompressionRatio();
+		event.mergePasses = mergePasses;
+		event.peakTableSize = peakTableSize;
+		event.peakTableBytes = peakTableBytes;
+		event.wallTime = getWallTimeNanos();
+		event.commit();
+	}
+
+	public String getStrategy() {
+		return strategy;
+	}
+
+	public synchronized long getTokens() {
+		return tokens;
+	}
+
+	/**
+	 * Bytes of input consumed, 0 if the input was given as characters.
+	 */
+	public synchronized long getBytesRead() {
+		return bytesRead;
+	}
+
+	public synchronized int getRunsSpilled() {
+		return runsSpilled;
+	}
+
+	public synchronized long getBytesSpilled() {
+		return bytesSpilled;
+	}
+
+	/**
+	 * Bytes of the spilled runs before compression.
+	 */
+	public synchronized long getBytesSpilledUncompressed() {
+		return bytesSpilledUncompressed;
+	}
+
+	/**
+	 * Uncompressed over compressed size of the spilled runs, 1 if nothing was
+	 * spilled or compressed.
+	 */
+	public synchronized double getSpillCompressionRatio() {
+		return bytesSpilled == 0 ? 1 : (double) bytesSpilledUncompressed
+				/ bytesSpilled;
+	}
+
+	public synchronized int getMergePasses() {
+		return mergePasses;
+	}
+
+	/**
+	 * Most distinct words held in one count table.
+	 */
+	public synchronized int getPeakTableSize() {
+		return peakTableSize;
+	}
+
+	/**
+	 * Most bytes of words and counts held in one count table, as
+	 * WordCountTable.bytesUsed() reports them.
+	 */
+	public synchronized long getPeakTableBytes() {
+		return peakTableBytes;
+	}
+
+	/**
+	 * Wall time of every phase in nanoseconds, in the order the phases first
+	 * ran.
+	 */
+	public synchronized Map<String, Long> getPhaseNanos() {
+		return new LinkedHashMap<String, Long>(phaseNanos);
+	}
+
+	public synchronized long getWallTimeNanos() {
+		long sum = 0;
+		for (long n : phaseNanos.values()) {
+			sum += n;
+		}
+		return sum;
+	}
+
+	/**
+	 * Tokens over the wall time of all phases.
+	 */
+	public synchronized double getTokensPerSecond() {
+		long nanos = getWallTimeNanos();
+		return nanos == 0 ? 0 : tokens * 1e9 / nanos;
+	}
+
+	/**
+	 * One line of space separated key=value pairs, with phase times in
+	 * milliseconds as phase.NAME.ms.
+	 */
+	@Override
+	public synchronized String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("strategy=").append(strategy);
+		sb.append(" tokens=").append(tokens);
+		sb.append(" bytesRead=").append(bytesRead);
+		sb.append(" tokensPerSecond=").append(
+				String.format(Locale.ROOT, "%.0f", getTokensPerSecond()));
+		sb.append(" runsSpilled=").append(runsSpilled);
+		sb.append(" bytesSpilled=").append(bytesSpilled);
+		sb.append(" spillCompressionRatio=").append(
+				String.format(Locale.ROOT, "%.2f", getSpillCompressionRatio()));
+		sb.append(" mergePasses=").append(mergePasses);
+		sb.append(" peakTableSize=").append(peakTableSize);
+		sb.append(" peakTableBytes=").append(peakTableBytes);
+		for (Map.Entry<String, Long> e : phaseNanos.entrySet()) {
+			sb.append(" phase.").append(e.getKey()).append(".ms=")
+					.append(e.getValue() / 1000000);
+		}
+		sb.append(" wallTime.ms=").append(getWallTimeNanos() / 1000000);
+		return sb.toString();
+	}
+}
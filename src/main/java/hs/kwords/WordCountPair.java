@@ -3,9 +3,11 @@ package hs.kwords;
 public class WordCountPair {
 	String word;
 	int count;
+	// approximate counts lie in [count - error, count]
+	int error;
 
 	public WordCountPair(String w, int c) {
 		this.word = w;
 		this.count = c;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,29 @@
+package hs.kwords;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A phase of a word count, such as counting or merging, with the tokens and
+ * bytes consumed while it ran.
+ */
+@Name("hs.kwords.Phase")
+@Label("Word Count Phase")
+@Category("Word Count")
+class WordCountPhaseEvent extends Event {
+	@Label("Strategy")
+	String strategy;
+
+	@Label("Phase")
+	String phase;
+
+	@Label("Tokens")
+	long tokens;
+
+	@Label("Bytes Read")
+	@DataAmount
+	long bytesRead;
+}
@@ -0,0 +1,381 @@
+package hs.kwords;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Answers word frequency queries over HTTP on the loopback interface, so
+ * that a corpus is counted once instead of once per question:
+ *
+ * <pre>
+ * GET /top?corpus=PATH[&amp;k=N][&amp;filter=stopwords|lowercase|none]
+ * GET /bottom?corpus=PATH[&amp;k=N][&amp;filter=...]
+ * GET /count?corpus=PATH&amp;word=WORD[&amp;filter=...]
+ * GET /stats
+ * </pre>
+ *
+ * A corpus is anything CorpusWordCountStrategy.listDocuments() accepts, all
+ * of its documents counted into one WordCountTable. Answers are
+ * "word\tcount" lines.
+ *
+ * Count tables stay resident per corpus and filter chain, the least recently
+ * used ones are dropped once their memory footprint passes the budget. Top
+ * and bottom answers are cached as encoded responses, keyed by corpus,
+ * filter chain and K, so a repeated query is a map lookup and a write. The
+ * least recently used answers are dropped once their bytes pass the cache
+ * size. K is at most MAX_K.
+ */
+public class WordCountServer {
+	public static final long DEFAULT_RESULT_CACHE_BYTES = 16L << 20;
+	public static final int MAX_K = 10000;
+	private static final String FILTER_STOPWORDS = "stopwords";
+	private static final String FILTER_LOWERCASE = "lowercase";
+	private static final String FILTER_NONE = "none";
+
+	private final StopWordSet stopWords;
+	private final long memoryBudget;
+	private HttpServer server;
+	private ExecutorService executor;
+
+	// guarded by itself, in access order
+	private final LinkedHashMap<String, FutureTask<WordCountTable>> tables = new LinkedHashMap<String, FutureTask<WordCountTable>>(
+			16, 0.75f, true);
+	// guarded by itself, in access order
+	private final LinkedHashMap<String, byte[]> results = new LinkedHashMap<String, byte[]>(
+			16, 0.75f, true);
+	private final long resultCacheBytes;
+	private long resultBytes = 0;
+
+	private final AtomicLong queries = new AtomicLong();
+	private final AtomicLong resultHits = new AtomicLong();
+	private final AtomicLong tablesCounted = new AtomicLong();
+	private final AtomicLong tablesEvicted = new AtomicLong();
+
+	public WordCountServer(StopWordSet stopWords, long memoryBudget) {
+		this(stopWords, memoryBudget, DEFAULT_RESULT_CACHE_BYTES);
+	}
+
+	/**
+	 * memoryBudget bounds the summed memoryFootprint() of the resident
+	 * tables, though the table in use is always kept. resultCacheBytes
+	 * bounds the summed size of the cached answers and their keys.
+	 */
+	public WordCountServer(StopWordSet stopWords, long memoryBudget,
+			long resultCacheBytes) {
+		this.stopWords = stopWords;
+		this.memoryBudget = memoryBudget;
+		this.resultCacheBytes = resultCacheBytes;
+	}
+
+	/**
+	 * Listens on the loopback interface, on any free port if port is 0.
+	 */
+	public void start(int port, int threads) throws IOException {
+		// headers and body go out as separate writes, which Nagle's algorithm
+		// holds back until the client's delayed ack, some 40 ms per answer
+		if (System.getProperty("sun.net.httpserver.nodelay") == null)
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		server = HttpServer.create(new InetSocketAddress(
+				InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/top", new QueryHandler());
+		server.createContext("/bottom", new QueryHandler());
+		server.createContext("/count", new QueryHandler());
+		server.createContext("/stats", new QueryHandler());
+		executor = Executors.newFixedThreadPool(threads);
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdown();
+	}
+
+	private static class QueryException extends Exception {
+		private static final long serialVersionUID = 1L;
+		private int status;
+
+		QueryException(int status, String message) {
+			super(message);
+			this.status = status;
+		}
+	}
+
+	private static Map<String, String> parseQuery(String query)
+			throws UnsupportedEncodingException {
+		Map<String, String> params = new HashMap<String, String>();
+		if (query == null)
+			return params;
+		for (String pair : query.split("&")) {
+			int eq = pair.indexOf('=');
+			if (eq < 0) {
+				params.put(URLDecoder.decode(pair, "UTF-8"), "");
+			} else {
+				params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+						URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+			}
+		}
+		return params;
+	}
+
+	private TokenFilter[] filters(String filter) throws QueryException {
+		if (filter.equals(FILTER_STOPWORDS))
+			return new TokenFilter[] { new LowerCaseStopWordFilter(stopWords) };
+		if (filter.equals(FILTER_LOWERCASE))
+			return new TokenFilter[] { new LowerCaseFilter() };
+		if (filter.equals(FILTER_NONE))
+			return new TokenFilter[0];
+		throw new QueryException(400, "Unknown filter: " + filter);
+	}
+
+	private WordCountTable count(String corpus, TokenFilter[] filters)
+			throws IOException {
+		WordCountTable table = new WordCountTable();
+		TokenBatch batch = new TokenBatch();
+		for (File document : CorpusWordCountStrategy.listDocuments(corpus)) {
+			Tokenizer tokenizer = InputFiles.openTokenizer(document);
+			try {
+				TokenStream ts = new TokenStream(tokenizer, filters);
+				while (ts.nextBatch(batch)) {
+					table.incrementAll(batch);
+				}
+			} finally {
+				tokenizer.close();
+			}
+		}
+		tablesCounted.incrementAndGet();
+		return table;
+	}
+
+	/*
+	 * the table of a corpus, counting it if it is not resident. Concurrent
+	 * queries for the same corpus wait for one count.
+	 */
+	private WordCountTable table(final String corpus, String filter)
+			throws IOException, QueryException {
+		final TokenFilter[] chain = filters(filter);
+		String key = filter + ":" + corpus;
+		FutureTask<WordCountTable> task;
+		boolean created = false;
+		synchronized (tables) {
+			task = tables.get(key);
+			if (task == null) {
+				task = new FutureTask<WordCountTable>(
+						new Callable<WordCountTable>() {
+							public WordCountTable call() throws IOException {
+								return count(corpus, chain);
+							}
+						});
+				tables.put(key, task);
+				created = true;
+			}
+		}
+		if (created)
+			task.run();
+		WordCountTable table;
+		try {
+			table = task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted counting " + corpus);
+		} catch (ExecutionException e) {
+			synchronized (tables) {
+				if (tables.get(key) == task)
+					tables.remove(key);
+			}
+			if (e.getCause() instanceof FileNotFoundException)
+				throw new QueryException(404, e.getCause().getMessage());
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+		if (created)
+			evict(task);
+		return table;
+	}
+
+	/*
+	 * drops the least recently used tables until the counted ones fit the
+	 * budget, keeping the one just counted
+	 */
+	private void evict(FutureTask<WordCountTable> keep) {
+		synchronized (tables) {
+			long footprint = 0;
+			for (FutureTask<WordCountTable> t : tables.values()) {
+				if (t.isDone() && !t.isCancelled()) {
+					try {
+						footprint += t.get().memoryFootprint();
+					} catch (Exception e) {
+						// failed counts are removed by their own query
+					}
+				}
+			}
+			Iterator<FutureTask<WordCountTable>> it = tables.values()
+					.iterator();
+			while (footprint > memoryBudget && it.hasNext()) {
+				FutureTask<WordCountTable> t = it.next();
+				if (t == keep || !t.isDone())
+					continue;
+				try {
+					footprint -= t.get().memoryFootprint();
+				} catch (Exception e) {
+					// counted nothing
+				}
+				it.remove();
+				tablesEvicted.incrementAndGet();
+			}
+		}
+	}
+
+	/*
+	 * approximate bytes held by a cached answer, with its key as chars
+	 */
+	private static long cost(String key, byte[] body) {
+		return 2L * key.length() + body.length;
+	}
+
+	private void cacheResult(String key, byte[] body) {
+		synchronized (results) {
+			byte[] old = results.put(key, body);
+			if (old != null)
+				resultBytes -= cost(key, old);
+			resultBytes += cost(key, body);
+			Iterator<Map.Entry<String, byte[]>> it = results.entrySet()
+					.iterator();
+			while (resultBytes > resultCacheBytes && it.hasNext()) {
+				Map.Entry<String, byte[]> e = it.next();
+				resultBytes -= cost(e.getKey(), e.getValue());
+				it.remove();
+			}
+		}
+	}
+
+	private static void appendPairs(StringBuilder sb, List<WordCountPair> lst) {
+		for (WordCountPair p : lst) {
+			sb.append(p.word).append('\t').append(p.count).append('\n');
+		}
+	}
+
+	private byte[] answer(String path, Map<String, String> params)
+			throws IOException, QueryException {
+		if (path.equals("/stats")) {
+			int resident;
+			synchronized (tables) {
+				resident = tables.size();
+			}
+			return String.format(
+					"queries\t%d\nresultHits\t%d\ntablesCounted\t%d\n"
+							+ "tablesEvicted\t%d\ntablesResident\t%d\n",
+					queries.get(), resultHits.get(), tablesCounted.get(),
+					tablesEvicted.get(), resident).getBytes(Utf8.CHARSET);
+		}
+
+		String corpus = params.get("corpus");
+		if (corpus == null)
+			throw new QueryException(400, "Missing parameter: corpus");
+		corpus = new File(corpus).getCanonicalPath();
+		String filter = params.containsKey("filter") ? params.get("filter")
+				: FILTER_STOPWORDS;
+
+		if (path.equals("/count")) {
+			String word = params.get("word");
+			if (word == null)
+				throw new QueryException(400, "Missing parameter: word");
+			WordCountTable table = table(corpus, filter);
+			// the query word goes through the same filters as the corpus
+			for (TokenFilter f : filters(filter)) {
+				word = f.filter(word);
+			}
+			int count = 0;
+			if (word != null) {
+				byte[] key = word.getBytes(Utf8.CHARSET);
+				count = table.get(key, 0, key.length);
+			}
+			return (params.get("word") + "\t" + count + "\n")
+					.getBytes(Utf8.CHARSET);
+		}
+
+		if (!path.equals("/top") && !path.equals("/bottom"))
+			throw new QueryException(404, "Unknown query: " + path);
+		int k = WordCountStrategy.DEFAULT_K;
+		if (params.containsKey("k")) {
+			try {
+				k = Integer.parseInt(params.get("k"));
+			} catch (NumberFormatException e) {
+				k = 0;
+			}
+			if (k <= 0 || k > MAX_K)
+				throw new QueryException(400, "k must be between 1 and "
+						+ MAX_K + ": " + params.get("k"));
+		}
+		String key = path + ":" + filter + ":" + k + ":" + corpus;
+		byte[] cached;
+		synchronized (results) {
+			cached = results.get(key);
+		}
+		if (cached != null) {
+			resultHits.incrementAndGet();
+			return cached;
+		}
+
+		TopKSelector selector = new TopKSelector(k);
+		selector.offerAll(table(corpus, filter));
+		StringBuilder sb = new StringBuilder();
+		appendPairs(sb, path.equals("/top") ? selector.top() : selector
+				.bottom());
+		byte[] body = sb.toString().getBytes(Utf8.CHARSET);
+		cacheResult(key, body);
+		return body;
+	}
+
+	private class QueryHandler implements HttpHandler {
+		public void handle(HttpExchange exchange) throws IOException {
+			queries.incrementAndGet();
+			int status = 200;
+			byte[] body;
+			try {
+				if (!exchange.getRequestMethod().equals("GET"))
+					throw new QueryException(405, "Only GET is supported");
+				body = answer(exchange.getRequestURI().getPath(),
+						parseQuery(exchange.getRequestURI().getRawQuery()));
+			} catch (QueryException e) {
+				status = e.status;
+				body = (e.getMessage() + "\n").getBytes(Utf8.CHARSET);
+			} catch (Exception e) {
+				status = 500;
+				body = (e + "\n").getBytes(Utf8.CHARSET);
+			}
+			exchange.getResponseHeaders().set("Content-Type",
+					"text/plain; charset=utf-8");
+			exchange.sendResponseHeaders(status, body.length);
+			OutputStream out = exchange.getResponseBody();
+			out.write(body);
+			out.close();
+		}
+	}
+}
@@ -5,7 +5,13 @@ import java.util.List;
 import java.util.Map;
 
 public interface WordCountStrategy {
+	// number of most and least frequent words reported by default
+	public static final int DEFAULT_K = 5;
+
 	public void compute() throws IOException;
 
 	public Map<String, List<WordCountPair>> get();
-}
\ No newline at end of file
+
+	// what the last compute() did
+	public WordCountMetrics getMetrics();
+}
@@ -0,0 +1,53 @@
+package hs.kwords;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * The metrics of a finished word count.
+ */
+@Name("hs.kwords.Summary")
+@Label("Word Count Summary")
+@Category("Word Count")
+class WordCountSummaryEvent extends Event {
+	@Label("Strategy")
+	String strategy;
+
+	@Label("Tokens")
+	long tokens;
+
+	@Label("Bytes Read")
+	@DataAmount
+	long bytesRead;
+
+	@Label("Tokens per Second")
+	double tokensPerSecond;
+
+	@Label("Runs Spilled")
+	int runsSpilled;
+
+	@Label("Bytes Spilled")
+	@DataAmount
+	long bytesSpilled;
+
+	@Label("Spill Compression Ratio")
+	double spillCompressionRatio;
+
+	@Label("Merge Passes")
+	int mergePasses;
+
+	@Label("Peak Table Size")
+	int peakTableSize;
+
+	@Label("Peak Table Bytes")
+	@DataAmount
+	long peakTableBytes;
+
+	@Label("Wall Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long wallTime;
+}
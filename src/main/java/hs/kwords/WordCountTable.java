@@ -0,0 +1,360 @@
+package hs.kwords;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash table from word to count, built from primitive arrays
+ * only. Words are stored once as UTF-8 bytes in a growing byte arena, and each
+ * distinct word gets a dense id (0, 1, 2, ...) in insertion order. The slot
+ * array holds id + 1 (0 marks an empty slot), so looking a word up and
+ * incrementing its count is a single probe sequence and nothing is boxed.
+ */
+public class WordCountTable {
+	private static final int DEFAULT_CAPACITY = 1 << 10;
+	// four int arrays per entry, and at least two slots per entry
+	private static final int BYTES_PER_ENTRY = 4 * 4 + 2 * 4;
+
+	private int[] slots;
+	private int mask;
+
+	private byte[] arena;
+	private int arenaSize = 0;
+
+	private int[] keyOffsets;
+	private int[] keyLengths;
+	private int[] hashes;
+	private int[] counts;
+	private int size = 0;
+
+	private byte[] scratch = new byte[64];
+
+	public WordCountTable() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public WordCountTable(int expectedWords) {
+		int capacity = Integer.highestOneBit(Math.max(16, expectedWords) * 2 - 1) << 1;
+		slots = new int[capacity];
+		mask = capacity - 1;
+		int entries = capacity / 2;
+		keyOffsets = new int[entries];
+		keyLengths = new int[entries];
+		hashes = new int[entries];
+		counts = new int[entries];
+		arena = new byte[entries * 8];
+	}
+
+	private int encode(CharSequence word) {
+		if (scratch.length < Utf8.maxBytes(word))
+			scratch = new byte[Math.max(Utf8.maxBytes(word), scratch.length * 2)];
+		return Utf8.encode(word, scratch, 0);
+	}
+
+	static int hash(byte[] b, int off, int len) {
+		int h = 0x9747b28c;
+		for (int i = off, end = off + len; i < end; i++) {
+			h = (h ^ b[i]) * 0x01000193;
+		}
+		// spread the low bits, they pick the slot
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		return h;
+	}
+
+	private boolean keyEquals(int id, byte[] b, int off, int len) {
+		if (keyLengths[id] != len)
+			return false;
+		int ko = keyOffsets[id];
+		for (int i = 0; i < len; i++) {
+			if (arena[ko + i] != b[off + i])
+				return false;
+		}
+		return true;
+	}
+
+	/*
+	 * returns the slot holding the key, or the empty slot where it belongs
+	 */
+	private int findSlot(byte[] b, int off, int len, int h) {
+		int slot = h & mask;
+		while (true) {
+			int e = slots[slot];
+			if (e == 0)
+				return slot;
+			int id = e - 1;
+			if (hashes[id] == h && keyEquals(id, b, off, len))
+				return slot;
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	private int insert(int slot, byte[] b, int off, int len, int h, int count) {
+		if (size == counts.length) {
+			int n = size * 2;
+			keyOffsets = Arrays.copyOf(keyOffsets, n);
+			keyLengths = Arrays.copyOf(keyLengths, n);
+			hashes = Arrays.copyOf(hashes, n);
+			counts = Arrays.copyOf(counts, n);
+		}
+		if (arenaSize + len > arena.length) {
+			long n = Math.max(arena.length * 2L, (long) arenaSize + len);
+			if (n > Integer.MAX_VALUE - 8)
+				throw new IllegalStateException("Word table arena is full");
+			arena = Arrays.copyOf(arena, (int) n);
+		}
+		System.arraycopy(b, off, arena, arenaSize, len);
+		int id = size++;
+		keyOffsets[id] = arenaSize;
+		keyLengths[id] = len;
+		hashes[id] = h;
+		counts[id] = count;
+		arenaSize += len;
+		slots[slot] = id + 1;
+		if (size * 2 > slots.length)
+			rehash();
+		return id;
+	}
+
+	private void rehash() {
+		int capacity = slots.length * 2;
+		slots = new int[capacity];
+		mask = capacity - 1;
+		for (int id = 0; id < size; id++) {
+			int slot = hashes[id] & mask;
+			while (slots[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = id + 1;
+		}
+	}
+
+	/**
+	 * Adds delta to the count of the UTF-8 encoded word in b[off, off + len)
+	 * and returns the new count.
+	 */
+	public int add(byte[] b, int off, int len, int delta) {
+		int h = hash(b, off, len);
+		int slot = findSlot(b, off, len, h);
+		int e = slots[slot];
+		if (e == 0) {
+			insert(slot, b, off, len, h, delta);
+			return delta;
+		}
+		return counts[e - 1] += delta;
+	}
+
+	public int add(CharSequence word, int delta) {
+		int len = encode(word);
+		return add(scratch, 0, len, delta);
+	}
+
+	public int increment(CharSequence word) {
+		return add(word, 1);
+	}
+
+	public int add(char[] buf, int off, int len, int delta) {
+		if (scratch.length < len * 3)
+			scratch = new byte[Math.max(len * 3, scratch.length * 2)];
+		int n = Utf8.encode(buf, off, len, scratch, 0);
+		return add(scratch, 0, n, delta);
+	}
+
+	/**
+	 * Like add(char[], int, int, int), but returns the id of the word, which
+	 * stays the same until clear().
+	 */
+	public int addAndGetId(char[] buf, int off, int len, int delta) {
+		if (scratch.length < len * 3)
+			scratch = new byte[Math.max(len * 3, scratch.length * 2)];
+		int n = Utf8.encode(buf, off, len, scratch, 0);
+		return addAndGetId(scratch, 0, n, delta);
+	}
+
+	/**
+	 * Like add(byte[], int, int, int), but returns the id of the word.
+	 */
+	public int addAndGetId(byte[] b, int off, int len, int delta) {
+		int h = hash(b, off, len);
+		int slot = findSlot(b, off, len, h);
+		int e = slots[slot];
+		if (e == 0)
+			return insert(slot, b, off, len, h, delta);
+		counts[e - 1] += delta;
+		return e - 1;
+	}
+
+	/**
+	 * Adds one to the count of every token in the batch.
+	 */
+	public void incrementAll(TokenBatch batch) {
+		char[] chars = batch.array();
+		for (int i = 0; i < batch.size(); i++) {
+			add(chars, batch.offset(i), batch.length(i), 1);
+		}
+	}
+
+	public int get(CharSequence word) {
+		int len = encode(word);
+		int e = slots[findSlot(scratch, 0, len, hash(scratch, 0, len))];
+		return e == 0 ? 0 : counts[e - 1];
+	}
+
+	/**
+	 * The count of the UTF-8 encoded word in b[off, off + len). Unlike
+	 * get(CharSequence) it uses no scratch buffer, so once counting is done
+	 * several threads may look words up at once.
+	 */
+	public int get(byte[] b, int off, int len) {
+		int e = slots[findSlot(b, off, len, hash(b, off, len))];
+		return e == 0 ? 0 : counts[e - 1];
+	}
+
+	/**
+	 * Adds all counts of the other table to this one.
+	 */
+	public void addAll(WordCountTable other) {
+		for (int id = 0; id < other.size; id++) {
+			add(other.arena, other.keyOffsets[id], other.keyLengths[id],
+					other.counts[id]);
+		}
+	}
+
+	/**
+	 * Number of distinct words. Ids run from 0 to size() - 1.
+	 */
+	public int size() {
+		return size;
+	}
+
+	public int count(int id) {
+		return counts[id];
+	}
+
+	byte[] keyArena() {
+		return arena;
+	}
+
+	int keyOffset(int id) {
+		return keyOffsets[id];
+	}
+
+	int keyLength(int id) {
+		return keyLengths[id];
+	}
+
+	/*
+	 * the first eight bytes of the word, big endian and zero padded, so that
+	 * comparing prefixes unsigned orders words like their bytes do
+	 */
+	private long prefix(int id) {
+		long p = 0;
+		int off = keyOffsets[id];
+		int n = Math.min(8, keyLengths[id]);
+		for (int i = 0; i < n; i++) {
+			p |= (arena[off + i] & 0xffL) << (56 - 8 * i);
+		}
+		return p;
+	}
+
+	private int compare(long p1, int id1, long p2, int id2) {
+		if (p1 != p2)
+			return Long.compareUnsigned(p1, p2);
+		return Utf8.compare(arena, keyOffsets[id1], keyLengths[id1], arena,
+				keyOffsets[id2], keyLengths[id2]);
+	}
+
+	/**
+	 * All ids ordered by the UTF-8 bytes of their words. The sort runs on an
+	 * int array of ids and a long array of word prefixes, so most comparisons
+	 * are one unsigned long compare and no String or boxed id is created.
+	 */
+	public int[] sortedIds() {
+		int[] ids = new int[size];
+		long[] prefixes = new long[size];
+		for (int id = 0; id < size; id++) {
+			ids[id] = id;
+			prefixes[id] = prefix(id);
+		}
+		sort(ids, prefixes, 0, size - 1);
+		return ids;
+	}
+
+	private static void swap(int[] ids, long[] prefixes, int i, int j) {
+		int id = ids[i];
+		ids[i] = ids[j];
+		ids[j] = id;
+		long p = prefixes[i];
+		prefixes[i] = prefixes[j];
+		prefixes[j] = p;
+	}
+
+	/*
+	 * quicksort of [lo, hi] with a median of three pivot and insertion sort
+	 * for short ranges, recursing into the smaller half only
+	 */
+	private void sort(int[] ids, long[] prefixes, int lo, int hi) {
+		while (hi - lo >= 16) {
+			int mid = (lo + hi) >>> 1;
+			if (compare(prefixes[mid], ids[mid], prefixes[lo], ids[lo]) < 0)
+				swap(ids, prefixes, mid, lo);
+			if (compare(prefixes[hi], ids[hi], prefixes[lo], ids[lo]) < 0)
+				swap(ids, prefixes, hi, lo);
+			if (compare(prefixes[hi], ids[hi], prefixes[mid], ids[mid]) < 0)
+				swap(ids, prefixes, hi, mid);
+			long pp = prefixes[mid];
+			int pid = ids[mid];
+			int i = lo;
+			int j = hi;
+			while (i <= j) {
+				while (compare(prefixes[i], ids[i], pp, pid) < 0) {
+					i++;
+				}
+				while (compare(prefixes[j], ids[j], pp, pid) > 0) {
+					j--;
+				}
+				if (i <= j)
+					swap(ids, prefixes, i++, j--);
+			}
+			if (j - lo < hi - i) {
+				sort(ids, prefixes, lo, j);
+				lo = i;
+			} else {
+				sort(ids, prefixes, i, hi);
+				hi = j;
+			}
+		}
+		for (int i = lo + 1; i <= hi; i++) {
+			for (int j = i; j > lo
+					&& compare(prefixes[j], ids[j], prefixes[j - 1], ids[j - 1]) < 0; j--) {
+				swap(ids, prefixes, j, j - 1);
+			}
+		}
+	}
+
+	public String word(int id) {
+		return Utf8.decode(arena, keyOffsets[id], keyLengths[id]);
+	}
+
+	/**
+	 * Approximate number of bytes held by this table.
+	 */
+	public long memoryFootprint() {
+		return 4L * slots.length + arena.length + 16L * counts.length;
+	}
+
+	/**
+	 * Approximate number of bytes needed for the words stored right now. Unlike
+	 * memoryFootprint() this drops back to zero after clear(), and grows
+	 * smoothly instead of doubling.
+	 */
+	public long bytesUsed() {
+		return arenaSize + (long) BYTES_PER_ENTRY * size;
+	}
+
+	public void clear() {
+		Arrays.fill(slots, 0);
+		size = 0;
+		arenaSize = 0;
+	}
+}
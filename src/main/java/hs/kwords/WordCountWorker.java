@@ -0,0 +1,238 @@
+package hs.kwords;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * The worker process of MapReduceWordCountStrategy. Workers talk to the
+ * coordinator only through files in the work directory, so they can run on
+ * any machine which sees the input and the work directory at the same paths.
+ *
+ * <pre>
+ * map WORKDIR MAP INPUT START END [--stop-words PATH] [--memory-budget BYTES]
+ * reduce WORKDIR PARTITION MAPS K
+ * </pre>
+ *
+ * A map worker counts the bytes [START, END) of the input with the external
+ * sort and splits the merged counts into one sorted file per key range of
+ * WORKDIR/splitters. A reduce worker merges the files of its key range from
+ * all maps, and writes its counts and their top and bottom K.
+ */
+public class WordCountWorker {
+	static final String SPLITTERS = "splitters";
+	static final String STATS = "stats";
+
+	private WordCountWorker() {
+	}
+
+	static File mapDir(File workDir, int map) {
+		return new File(workDir, String.format("map-%05d", map));
+	}
+
+	static File partitionFile(File workDir, int map, int partition) {
+		return new File(mapDir(workDir, map), String.format("part-%05d",
+				partition));
+	}
+
+	/**
+	 * The word counts of one key range, sorted by the UTF-8 bytes of the
+	 * words. Read in partition order, the reduce files hold all counts in
+	 * order.
+	 */
+	static File reduceFile(File workDir, int partition) {
+		return new File(workDir, String.format("reduce-%05d", partition));
+	}
+
+	static File topFile(File workDir, int partition) {
+		return new File(workDir, reduceFile(workDir, partition).getName()
+				+ ".top");
+	}
+
+	static File bottomFile(File workDir, int partition) {
+		return new File(workDir, reduceFile(workDir, partition).getName()
+				+ ".bottom");
+	}
+
+	/*
+	 * one splitter per line, the words contain no whitespace
+	 */
+	static void writeSplitters(File workDir, List<byte[]> splitters)
+			throws IOException {
+		OutputStream out = new FileOutputStream(new File(workDir, SPLITTERS));
+		try {
+			for (byte[] s : splitters) {
+				out.write(s);
+				out.write('\n');
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	static List<byte[]> readSplitters(File workDir) throws IOException {
+		List<byte[]> splitters = new ArrayList<byte[]>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(new File(workDir, SPLITTERS)), Utf8.CHARSET));
+		try {
+			String l;
+			while ((l = reader.readLine()) != null) {
+				splitters.add(l.getBytes(Utf8.CHARSET));
+			}
+		} finally {
+			reader.close();
+		}
+		return splitters;
+	}
+
+	static void map(File workDir, int map, File input, long start, long end,
+			String stopWordsPath, long memoryBudget) throws IOException {
+		List<byte[]> splitters = readSplitters(workDir);
+		File dir = mapDir(workDir, map);
+		dir.mkdirs();
+
+		RandomAccessFile file = new RandomAccessFile(input, "r");
+		MappedByteBuffer buf;
+		try {
+			buf = file.getChannel().map(FileChannel.MapMode.READ_ONLY, start,
+					end - start);
+		} finally {
+			file.close();
+		}
+		TokenFilter[] filters = new TokenFilter[0];
+		if (stopWordsPath != null)
+			filters = new TokenFilter[] { new LowerCaseStopWordFilter(
+					stopWordsPath) };
+		TokenStream ts = new TokenStream(new Utf8Tokenizer(buf), filters);
+
+		ExternalSortWordCountStrategy external = new ExternalSortWordCountStrategy(
+				ts);
+		File tmp = new File(dir, "tmp");
+		external.setTmpDir(tmp);
+		if (memoryBudget > 0)
+			external.setMemoryBudget(memoryBudget);
+		File[] targets = new File[splitters.size() + 1];
+		for (int p = 0; p < targets.length; p++) {
+			targets[p] = partitionFile(workDir, map, p);
+		}
+		external.computeInto(new PartitionedRunWriter(splitters, targets,
+				RunFormat.COMPRESSED, KWayMerger.DEFAULT_BUFFER_SIZE));
+		tmp.delete();
+
+		WordCountMetrics metrics = external.getMetrics();
+		Properties stats = new Properties();
+		stats.setProperty("tokens", Long.toString(metrics.getTokens()));
+		stats.setProperty("bytesRead", Long.toString(metrics.getBytesRead()));
+		stats.setProperty("runsSpilled",
+				Integer.toString(metrics.getRunsSpilled()));
+		stats.setProperty("bytesSpilled",
+				Long.toString(metrics.getBytesSpilled()));
+		stats.setProperty("bytesSpilledUncompressed",
+				Long.toString(metrics.getBytesSpilledUncompressed()));
+		OutputStream out = new FileOutputStream(new File(dir, STATS));
+		try {
+			stats.store(out, null);
+		} finally {
+			out.close();
+		}
+	}
+
+	static Properties readStats(File workDir, int map) throws IOException {
+		Properties stats = new Properties();
+		FileInputStream in = new FileInputStream(new File(mapDir(workDir, map),
+				STATS));
+		try {
+			stats.load(in);
+		} finally {
+			in.close();
+		}
+		return stats;
+	}
+
+	private static void writeList(File f, List<WordCountPair> lst)
+			throws IOException {
+		RunWriter writer = RunFormat.TEXT.openWriter(f,
+				KWayMerger.DEFAULT_BUFFER_SIZE);
+		for (WordCountPair p : lst) {
+			writer.write(p.word, p.count);
+		}
+		writer.close();
+	}
+
+	static void reduce(File workDir, int partition, int maps, int k)
+			throws IOException {
+		List<File> runs = new ArrayList<File>();
+		for (int map = 0; map < maps; map++) {
+			runs.add(partitionFile(workDir, map, partition));
+		}
+		File counts = reduceFile(workDir, partition);
+		File tmp = new File(workDir, counts.getName() + ".tmp");
+		tmp.mkdirs();
+		KWayMerger merger = new KWayMerger(tmp, RunFormat.COMPRESSED,
+				KWayMerger.DEFAULT_FAN_IN, KWayMerger.DEFAULT_BUFFER_SIZE);
+		merger.merge(runs, counts);
+		tmp.delete();
+
+		TopKSelector selector = new TopKSelector(k);
+		RunReader reader = RunFormat.COMPRESSED.openReader(counts,
+				KWayMerger.DEFAULT_BUFFER_SIZE);
+		try {
+			while (reader.next()) {
+				selector.offer(reader.keyBytes(), 0, reader.keyLength(),
+						reader.count());
+			}
+		} finally {
+			reader.close();
+		}
+		writeList(topFile(workDir, partition), selector.top());
+		writeList(bottomFile(workDir, partition), selector.bottom());
+	}
+
+	private static void usage() {
+		System.err.println("Usage: WordCountWorker map <workdir> <map> <input> "
+				+ "<start> <end> [--stop-words <path>] [--memory-budget <bytes>]");
+		System.err.println("       WordCountWorker reduce <workdir> "
+				+ "<partition> <maps> <k>");
+		System.exit(2);
+	}
+
+	public static void main(String[] args) {
+		try {
+			if (args.length >= 6 && args[0].equals("map")) {
+				String stopWordsPath = null;
+				long memoryBudget = -1;
+				for (int i = 6; i < args.length; i++) {
+					if (args[i].equals("--stop-words") && i + 1 < args.length) {
+						stopWordsPath = args[++i];
+					} else if (args[i].equals("--memory-budget")
+							&& i + 1 < args.length) {
+						memoryBudget = Long.parseLong(args[++i]);
+					} else {
+						usage();
+					}
+				}
+				map(new File(args[1]), Integer.parseInt(args[2]), new File(
+						args[3]), Long.parseLong(args[4]),
+						Long.parseLong(args[5]), stopWordsPath, memoryBudget);
+			} else if (args.length == 5 && args[0].equals("reduce")) {
+				reduce(new File(args[1]), Integer.parseInt(args[2]),
+						Integer.parseInt(args[3]), Integer.parseInt(args[4]));
+			} else {
+				usage();
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,276 @@
+package hs.kwords;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Read-only view of a file written by WordIndexWriter. The file is memory
+ * mapped and only the first word of every block is copied to the heap, so
+ * opening is cheap however many words the index holds. A lookup is a binary
+ * search over the block index plus a scan of one block of about 4 KB.
+ * Lookups only read the mapping, so one index can be shared by threads.
+ */
+public class WordIndex {
+	private MappedByteBuffer buf;
+	private long wordCount;
+	private byte[][] firstWords;
+	private int[] blockOffsets;
+	private int indexOffset;
+	private int topOffset;
+	private int topCount;
+	private int bottomOffset;
+	private int bottomCount;
+
+	public WordIndex(File f) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(f, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException("Index file larger than 2 GB: " + f);
+			buf = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size());
+		} finally {
+			// the mapping stays valid after the channel is closed
+			raf.close();
+		}
+
+		for (int i = 0; i < WordIndexWriter.MAGIC.length; i++) {
+			if (buf.capacity() < WordIndexWriter.HEADER_SIZE
+					|| buf.get(i) != WordIndexWriter.MAGIC[i])
+				throw new IOException("Not a word index file: " + f);
+		}
+		wordCount = buf.getLong(4);
+		int blockCount = buf.getInt(12);
+		indexOffset = (int) buf.getLong(16);
+		topOffset = (int) buf.getLong(24);
+		topCount = buf.getInt(32);
+		bottomOffset = (int) buf.getLong(36);
+		bottomCount = buf.getInt(44);
+
+		firstWords = new byte[blockCount][];
+		blockOffsets = new int[blockCount];
+		Cursor c = new Cursor(indexOffset);
+		for (int i = 0; i < blockCount; i++) {
+			int len = c.varint();
+			firstWords[i] = new byte[len];
+			c.bytes(firstWords[i], 0, len);
+			blockOffsets[i] = (int) c.longValue();
+		}
+	}
+
+	/*
+	 * decodes the mapped file from a private position
+	 */
+	private class Cursor {
+		int pos;
+		byte[] word = new byte[64];
+		int wordLength;
+		int count;
+
+		Cursor(int pos) {
+			this.pos = pos;
+		}
+
+		int varint() {
+			int v = 0;
+			for (int shift = 0;; shift += 7) {
+				byte b = buf.get(pos++);
+				v |= (b & 0x7f) << shift;
+				if (b >= 0)
+					return v;
+			}
+		}
+
+		long longValue() {
+			long v = buf.getLong(pos);
+			pos += 8;
+			return v;
+		}
+
+		void bytes(byte[] dst, int off, int len) {
+			for (int i = 0; i < len; i++) {
+				dst[off + i] = buf.get(pos++);
+			}
+		}
+
+		// reads the next block record into word and count
+		void record() {
+			int shared = varint();
+			int len = varint();
+			if (word.length < shared + len)
+				word = Arrays.copyOf(word, Math.max(shared + len,
+						word.length * 2));
+			bytes(word, shared, len);
+			wordLength = shared + len;
+			count = varint();
+		}
+
+		WordCountPair pair() {
+			return new WordCountPair(Utf8.decode(word, 0, wordLength), count);
+		}
+	}
+
+	/**
+	 * Number of distinct words in the index.
+	 */
+	public long size() {
+		return wordCount;
+	}
+
+	/*
+	 * last block whose first word is <= key, or -1
+	 */
+	private int findBlock(byte[] key, int len) {
+		int lo = 0;
+		int hi = firstWords.length - 1;
+		int found = -1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			byte[] first = firstWords[mid];
+			if (Utf8.compare(first, 0, first.length, key, 0, len) <= 0) {
+				found = mid;
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		return found;
+	}
+
+	private int blockEnd(int block) {
+		return block + 1 < blockOffsets.length ? blockOffsets[block + 1]
+				: indexOffset;
+	}
+
+	/**
+	 * Count of the word, or 0 if it is not in the index.
+	 */
+	public int count(String word) {
+		byte[] key = word.getBytes(Utf8.CHARSET);
+		int block = findBlock(key, key.length);
+		if (block < 0)
+			return 0;
+		Cursor c = new Cursor(blockOffsets[block]);
+		int end = blockEnd(block);
+		while (c.pos < end) {
+			c.record();
+			int cmp = Utf8.compare(c.word, 0, c.wordLength, key, 0, key.length);
+			if (cmp == 0)
+				return c.count;
+			if (cmp > 0)
+				break;
+		}
+		return 0;
+	}
+
+	/**
+	 * Words w with from <= w < to in byte order, at most limit of them. A null
+	 * bound is open.
+	 */
+	public List<WordCountPair> range(String from, String to, int limit) {
+		byte[] lo = from == null ? new byte[0] : from.getBytes(Utf8.CHARSET);
+		byte[] hi = to == null ? null : to.getBytes(Utf8.CHARSET);
+		List<WordCountPair> lst = new ArrayList<WordCountPair>();
+		int block = Math.max(0, findBlock(lo, lo.length));
+		for (; block < blockOffsets.length && lst.size() < limit; block++) {
+			Cursor c = new Cursor(blockOffsets[block]);
+			int end = blockEnd(block);
+			while (c.pos < end && lst.size() < limit) {
+				c.record();
+				if (Utf8.compare(c.word, 0, c.wordLength, lo, 0, lo.length) < 0)
+					continue;
+				if (hi != null
+						&& Utf8.compare(c.word, 0, c.wordLength, hi, 0,
+								hi.length) >= 0)
+					return lst;
+				lst.add(c.pair());
+			}
+		}
+		return lst;
+	}
+
+	/**
+	 * Words starting with prefix, at most limit of them.
+	 */
+	public List<WordCountPair> prefix(String prefix, int limit) {
+		byte[] lo = prefix.getBytes(Utf8.CHARSET);
+		List<WordCountPair> lst = new ArrayList<WordCountPair>();
+		int block = Math.max(0, findBlock(lo, lo.length));
+		for (; block < blockOffsets.length && lst.size() < limit; block++) {
+			Cursor c = new Cursor(blockOffsets[block]);
+			int end = blockEnd(block);
+			while (c.pos < end && lst.size() < limit) {
+				c.record();
+				int n = Math.min(c.wordLength, lo.length);
+				int cmp = Utf8.compare(c.word, 0, n, lo, 0, lo.length);
+				if (cmp < 0)
+					continue;
+				if (cmp > 0)
+					return lst;
+				lst.add(c.pair());
+			}
+		}
+		return lst;
+	}
+
+	private List<WordCountPair> readWords(int offset, int n, int k) {
+		List<WordCountPair> lst = new ArrayList<WordCountPair>();
+		Cursor c = new Cursor(offset);
+		for (int i = 0; i < n && i < k; i++) {
+			int len = c.varint();
+			byte[] b = new byte[len];
+			c.bytes(b, 0, len);
+			lst.add(new WordCountPair(Utf8.decode(b, 0, len), c.varint()));
+		}
+		return lst;
+	}
+
+	/**
+	 * The k most frequent words, most frequent first. At most as many as the
+	 * index was built with.
+	 */
+	public List<WordCountPair> top(int k) {
+		return readWords(topOffset, topCount, k);
+	}
+
+	/**
+	 * The k least frequent words, least frequent first.
+	 */
+	public List<WordCountPair> bottom(int k) {
+		return readWords(bottomOffset, bottomCount, k);
+	}
+
+	/*
+	 * query an index from the command line:
+	 *
+	 * WordIndex <index> <word> | --prefix <prefix> | --top <k> | --bottom <k>
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: WordIndex <index> <word> | "
+					+ "--prefix <prefix> | --top <k> | --bottom <k>");
+			System.exit(-1);
+		}
+		WordIndex index = new WordIndex(new File(args[0]));
+		List<WordCountPair> lst;
+		if (args[1].equals("--prefix") && args.length > 2) {
+			lst = index.prefix(args[2], Integer.MAX_VALUE);
+		} else if (args[1].equals("--top") && args.length > 2) {
+			lst = index.top(Integer.parseInt(args[2]));
+		} else if (args[1].equals("--bottom") && args.length > 2) {
+			lst = index.bottom(Integer.parseInt(args[2]));
+		} else {
+			lst = new ArrayList<WordCountPair>();
+			lst.add(new WordCountPair(args[1], index.count(args[1])));
+		}
+		for (WordCountPair e : lst) {
+			System.out.println(String.format("%s -> %d", e.word, e.count));
+		}
+	}
+}
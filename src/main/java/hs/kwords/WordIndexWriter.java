@@ -0,0 +1,210 @@
+package hs.kwords;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds a WordIndex file from (word, count) records added in UTF-8 byte
+ * order, such as the output of the external sort. The layout is
+ *
+ * <pre>
+ * header       magic "WIX1", word count, block count, and where the
+ *              sections below start
+ * blocks       records of about BLOCK_SIZE bytes each. A record is
+ *              varint shared prefix, varint suffix length, suffix bytes,
+ *              varint count. The first record of a block shares nothing.
+ * block index  per block: varint first word length, first word, long offset
+ * top, bottom  the most and least frequent words, as varint length, word,
+ *              varint count
+ * </pre>
+ *
+ * The file is written next to the target with a ".tmp" suffix and moved
+ * into place atomically by close(), so the target is either the old index
+ * or the complete new one. abort() throws the partial file away.
+ */
+public class WordIndexWriter {
+	static final byte[] MAGIC = { 'W', 'I', 'X', '1' };
+	static final int HEADER_SIZE = 64;
+	public static final int BLOCK_SIZE = 4096;
+	public static final int DEFAULT_TOP_COUNT = 1000;
+
+	private File target;
+	private File tmp;
+	private OutputStream out;
+	private long pos = 0;
+	private long wordCount = 0;
+	private TopKSelector selector;
+
+	private long blockStart = -1;
+	private List<byte[]> firstWords = new ArrayList<byte[]>();
+	private List<Long> blockOffsets = new ArrayList<Long>();
+	private byte[] prev = new byte[64];
+	private int prevLength = -1;
+	private byte[] scratch = new byte[64];
+
+	public WordIndexWriter(File target) throws IOException {
+		this(target, DEFAULT_TOP_COUNT);
+	}
+
+	/**
+	 * topCount is how many of the most and least frequent words are stored
+	 * for top() and bottom() queries.
+	 */
+	public WordIndexWriter(File target, int topCount) throws IOException {
+		this.target = target;
+		this.tmp = new File(target.getPath() + ".tmp");
+		this.selector = new TopKSelector(topCount);
+		this.out = new BufferedOutputStream(new FileOutputStream(tmp),
+				1 << 16);
+		// the header is filled in by close()
+		writeBytes(new byte[HEADER_SIZE], 0, HEADER_SIZE);
+	}
+
+	private void writeBytes(byte[] b, int off, int len) throws IOException {
+		out.write(b, off, len);
+		pos += len;
+	}
+
+	private void writeVarint(int v) throws IOException {
+		while ((v & ~0x7f) != 0) {
+			out.write((v & 0x7f) | 0x80);
+			pos++;
+			v >>>= 7;
+		}
+		out.write(v);
+		pos++;
+	}
+
+	private void writeLong(long v) throws IOException {
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			out.write((int) (v >>> shift));
+		}
+		pos += 8;
+	}
+
+	public void add(String word, int count) throws IOException {
+		if (scratch.length < Utf8.maxBytes(word))
+			scratch = new byte[Utf8.maxBytes(word)];
+		int len = Utf8.encode(word, scratch, 0);
+		add(scratch, 0, len, count);
+	}
+
+	/**
+	 * Adds the UTF-8 encoded word in key[off, off + len). Words must be added
+	 * in increasing byte order, each once.
+	 */
+	public void add(byte[] key, int off, int len, int count)
+			throws IOException {
+		if (prevLength >= 0
+				&& Utf8.compare(prev, 0, prevLength, key, off, len) >= 0)
+			throw new IllegalArgumentException(
+					"Words must be added in increasing order: "
+							+ Utf8.decode(key, off, len));
+
+		int shared = 0;
+		if (blockStart < 0 || pos - blockStart >= BLOCK_SIZE) {
+			blockStart = pos;
+			byte[] first = new byte[len];
+			System.arraycopy(key, off, first, 0, len);
+			firstWords.add(first);
+			blockOffsets.add(pos);
+		} else {
+			int max = Math.min(prevLength, len);
+			while (shared < max && prev[shared] == key[off + shared]) {
+				shared++;
+			}
+		}
+		writeVarint(shared);
+		writeVarint(len - shared);
+		writeBytes(key, off + shared, len - shared);
+		writeVarint(count);
+
+		if (prev.length < len)
+			prev = new byte[Math.max(len, prev.length * 2)];
+		System.arraycopy(key, off, prev, 0, len);
+		prevLength = len;
+		wordCount++;
+
+		selector.offer(key, off, len, count);
+	}
+
+	private void writeWords(List<WordCountPair> words) throws IOException {
+		for (WordCountPair p : words) {
+			byte[] b = p.word.getBytes(Utf8.CHARSET);
+			writeVarint(b.length);
+			writeBytes(b, 0, b.length);
+			writeVarint(p.count);
+		}
+	}
+
+	/**
+	 * Closes and deletes the partial file, leaving the target as it was.
+	 */
+	public void abort() {
+		try {
+			out.close();
+		} catch (IOException e) {
+			// the file is deleted anyway
+		}
+		tmp.delete();
+	}
+
+	/**
+	 * Completes the index and moves it to the target. On failure the partial
+	 * file is deleted.
+	 */
+	public void close() throws IOException {
+		boolean done = false;
+		try {
+			finish();
+			Files.move(tmp.toPath(), target.toPath(),
+					StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+			done = true;
+		} finally {
+			if (!done)
+				abort();
+		}
+	}
+
+	private void finish() throws IOException {
+		long indexOffset = pos;
+		for (int i = 0; i < firstWords.size(); i++) {
+			byte[] first = firstWords.get(i);
+			writeVarint(first.length);
+			writeBytes(first, 0, first.length);
+			writeLong(blockOffsets.get(i));
+		}
+		List<WordCountPair> top = selector.top();
+		List<WordCountPair> bottom = selector.bottom();
+		long topOffset = pos;
+		writeWords(top);
+		long bottomOffset = pos;
+		writeWords(bottom);
+		out.close();
+
+		RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+		try {
+			raf.write(MAGIC);
+			raf.writeLong(wordCount);
+			raf.writeInt(firstWords.size());
+			raf.writeLong(indexOffset);
+			raf.writeLong(topOffset);
+			raf.writeInt(top.size());
+			raf.writeLong(bottomOffset);
+			raf.writeInt(bottom.size());
+			// all of it on disk before it replaces the target
+			raf.getFD().sync();
+		} finally {
+			raf.close();
+		}
+	}
+}
@@ -1,9 +1,29 @@
 package hs.kwords;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 
 import org.junit.Test;
 
@@ -52,4 +72,1198 @@ public class TopBottom5Test extends TestCase {
 			System.out.println(ts.next());
 		}
 	}
+
+	@Test
+	public void testParallelStrategy() throws Exception {
+		File f = File.createTempFile("parallel", ".txt");
+		f.deleteOnExit();
+		PrintWriter writer = new PrintWriter(f);
+		for (int i = 0; i < 60000; i++) {
+			writer.print("apple banana, banana. cherry cherry cherry the ");
+			if (i % 1000 == 0)
+				writer.println("Durian");
+		}
+		writer.close();
+
+		StopWordFilter stopWordFilter = new StopWordFilter(stopWordsFilePath);
+		LowerCaseFilter lCaseFilter = new LowerCaseFilter();
+		WordCountStrategy strategy = new ParallelWordCountStrategy(f, 4,
+				lCaseFilter, stopWordFilter);
+		strategy.compute();
+
+		List<WordCountPair> top = strategy.get().get("top");
+		List<WordCountPair> bottom = strategy.get().get("bottom");
+		assertEquals(4, top.size());
+		assertEquals("cherry", top.get(0).word);
+		assertEquals(180000, top.get(0).count);
+		assertEquals("banana", top.get(1).word);
+		assertEquals(120000, top.get(1).count);
+		assertEquals("durian", bottom.get(0).word);
+		assertEquals(60, bottom.get(0).count);
+	}
+
+	@Test
+	public void testCharTokenizer() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		sb.append("Hello, (world)! It's -- \"quoted\" e.g. a/b\\c {x}?\n\t");
+		for (int i = 0; i < 100000; i++) {
+			sb.append('w');
+		}
+		sb.append(" end.");
+		String myString = sb.toString();
+
+		List<String> expected = new ArrayList<String>();
+		EnglishTokenizer english = new EnglishTokenizer(
+				new ByteArrayInputStream(myString.getBytes()));
+		while (english.hasNext()) {
+			String w = english.next();
+			if (w.length() > 0)
+				expected.add(w);
+		}
+
+		List<String> lst = new ArrayList<String>();
+		CharTokenizer tokenizer = new CharTokenizer(new ByteArrayInputStream(
+				myString.getBytes()));
+		while (tokenizer.hasNext()) {
+			lst.add(tokenizer.nextSlice().toString());
+		}
+		assertEquals(expected, lst);
+	}
+
+	@Test
+	public void testWordCountTable() throws Exception {
+		WordCountTable table = new WordCountTable(16);
+		for (int i = 0; i < 5000; i++) {
+			table.increment("w" + (i % 1000));
+		}
+		table.increment("na\u00efve");
+		table.increment(new CharSlice("xna\u00efvex".toCharArray(), 1, 5));
+		table.add("\ud83d\ude00", 3);
+
+		assertEquals(1002, table.size());
+		assertEquals(5, table.get("w0"));
+		assertEquals(5, table.get("w999"));
+		assertEquals(0, table.get("w1000"));
+		assertEquals(2, table.get("na\u00efve"));
+		assertEquals(3, table.get("\ud83d\ude00"));
+		assertEquals("w0", table.word(0));
+		assertEquals("na\u00efve", table.word(1000));
+
+		WordCountTable other = new WordCountTable();
+		other.add("w0", 10);
+		other.add("fresh", 1);
+		table.addAll(other);
+		assertEquals(15, table.get("w0"));
+		assertEquals(1, table.get("fresh"));
+
+		table.clear();
+		assertEquals(0, table.size());
+		assertEquals(0, table.get("w0"));
+	}
+
+	@Test
+	public void testTopKSelector() throws Exception {
+		TopKSelector selector = new TopKSelector(3);
+		for (int i = 1; i <= 100; i++) {
+			selector.offer("w" + i, i);
+		}
+		selector.offer("a", 100);
+
+		List<WordCountPair> top = selector.top();
+		assertEquals(3, top.size());
+		assertEquals("a", top.get(0).word);
+		assertEquals("w100", top.get(1).word);
+		assertEquals("w99", top.get(2).word);
+
+		List<WordCountPair> bottom = selector.bottom();
+		assertEquals("w1", bottom.get(0).word);
+		assertEquals("w2", bottom.get(1).word);
+		assertEquals("w3", bottom.get(2).word);
+		assertFalse(selector.accepts(50));
+	}
+
+	@Test
+	public void testSortedIds() throws Exception {
+		WordCountTable table = new WordCountTable();
+		List<String> words = new ArrayList<String>();
+		Random random = new Random(3);
+		String[] stems = { "", "international", "internationalization", "na\u00efve",
+				"\uffff", "\ud83d\ude00", "a\u0000" };
+		for (int i = 0; i < 3000; i++) {
+			String w = stems[random.nextInt(stems.length)]
+					+ Integer.toString(random.nextInt(500), 36);
+			if (table.get(w) == 0)
+				words.add(w);
+			table.add(w, 1 + random.nextInt(3));
+		}
+		Collections.sort(words, Utf8.ORDER);
+		int[] ids = table.sortedIds();
+		assertEquals(words.size(), ids.length);
+		for (int i = 0; i < ids.length; i++) {
+			assertEquals(words.get(i), table.word(ids[i]));
+		}
+
+		// offers as bytes break ties like String.compareTo
+		for (int k : new int[] { 1, 5, 50 }) {
+			TopKSelector selector = new TopKSelector(k);
+			selector.offerAll(table);
+			List<WordCountPair> all = new ArrayList<WordCountPair>();
+			for (String w : words) {
+				all.add(new WordCountPair(w, table.get(w)));
+			}
+			Collections.sort(all, TopKSelector.TOP_ORDER);
+			assertPairsEqual(all.subList(0, k), selector.top());
+			Collections.sort(all, TopKSelector.BOTTOM_ORDER);
+			assertPairsEqual(all.subList(0, k), selector.bottom());
+		}
+		assertTrue(Utf8.compareAsString(new byte[] { (byte) 0xf0,
+				(byte) 0x9f, (byte) 0x98, (byte) 0x80 }, 0, 4, new byte[] {
+				(byte) 0xef, (byte) 0xbf, (byte) 0xbf }, 0, 3) < 0);
+	}
+
+	@Test
+	public void testStrategiesAgree() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 3000; i++) {
+			sb.append("word").append(i % 97).append(' ');
+			sb.append("other").append(i % 13).append(' ');
+		}
+		String myString = sb.toString();
+
+		StopWordFilter stopWordFilter = new StopWordFilter(stopWordsFilePath);
+		LowerCaseFilter lCaseFilter = new LowerCaseFilter();
+		WordCountStrategy inMemory = new InMemoryWordCountStrategy(
+				new TokenStream(new CharTokenizer(new ByteArrayInputStream(
+						myString.getBytes())), lCaseFilter, stopWordFilter), 7);
+		ExternalSortWordCountStrategy external = new ExternalSortWordCountStrategy(
+				new TokenStream(new CharTokenizer(new ByteArrayInputStream(
+						myString.getBytes())), lCaseFilter, stopWordFilter), 7);
+		external.setPipelineDepth(1);
+		ExternalSortWordCountStrategy spilling = new ExternalSortWordCountStrategy(
+				new TokenStream(new CharTokenizer(new ByteArrayInputStream(
+						myString.getBytes())), lCaseFilter, stopWordFilter), 7);
+		spilling.setMemoryBudget(500);
+		spilling.setMergeFanIn(2);
+		spilling.setPipelineDepth(3);
+		File tmpDir = new File("tmp/agree-test");
+		KWayMerger.deleteTree(tmpDir);
+		spilling.setTmpDir(tmpDir);
+		inMemory.compute();
+		external.compute();
+		spilling.compute();
+		// the runs went to a directory of their own, which is gone again
+		assertEquals(0, tmpDir.list().length);
+
+		assertPairsEqual(inMemory.get().get("top"), external.get().get("top"));
+		assertPairsEqual(inMemory.get().get("bottom"),
+				external.get().get("bottom"));
+		assertPairsEqual(inMemory.get().get("top"), spilling.get().get("top"));
+		assertPairsEqual(inMemory.get().get("bottom"),
+				spilling.get().get("bottom"));
+		assertEquals(7, inMemory.get().get("top").size());
+		assertEquals("other0", inMemory.get().get("top").get(0).word);
+	}
+
+	private void assertPairsEqual(List<WordCountPair> expected,
+			List<WordCountPair> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).word, actual.get(i).word);
+			assertEquals(expected.get(i).count, actual.get(i).count);
+		}
+	}
+
+	@Test
+	public void testKWayMerge() throws Exception {
+		File dir = new File("tmp/kway-test");
+		dir.mkdirs();
+		List<File> runs = new ArrayList<File>();
+		for (int r = 0; r < 10; r++) {
+			File f = new File(dir, "run" + r);
+			RunWriter writer = new TextRunWriter(f, 1024);
+			for (int i = 0; i < 50; i++) {
+				writer.write(String.format("w%03d", i * 10 + r % 5), 1);
+			}
+			writer.close();
+			runs.add(f);
+		}
+
+		File target = new File(dir, "merged");
+		KWayMerger merger = new KWayMerger(dir, RunFormat.TEXT, 3, 1024);
+		merger.merge(runs, target);
+		assertEquals(3, merger.getPasses());
+
+		RunReader reader = new TextRunReader(target, 1024);
+		int records = 0;
+		String last = "";
+		while (reader.next()) {
+			assertTrue(reader.word().compareTo(last) > 0);
+			assertEquals(2, reader.count());
+			last = reader.word();
+			records++;
+		}
+		reader.close();
+		assertEquals(250, records);
+		for (File f : runs) {
+			assertFalse(f.exists());
+		}
+		target.delete();
+	}
+
+	@Test
+	public void testBinaryRunFormat() throws Exception {
+		File dir = new File("tmp/binary-test");
+		dir.mkdirs();
+		File f = new File(dir, "run");
+		String[] words = { "", "apple", "applesauce", "apply", "b",
+				"na\u00efve", "\ud83d\ude00" };
+		RunWriter writer = RunFormat.BINARY.openWriter(f, 64);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			sb.append('z');
+		}
+		for (int i = 0; i < words.length; i++) {
+			writer.write(words[i], i * 1000);
+		}
+		writer.write(sb.toString(), Integer.MAX_VALUE);
+		writer.close();
+
+		RunReader reader = RunFormat.BINARY.openReader(f, 64);
+		for (int i = 0; i < words.length; i++) {
+			assertTrue(reader.next());
+			assertEquals(words[i], reader.word());
+			assertEquals(i * 1000, reader.count());
+		}
+		assertTrue(reader.next());
+		assertEquals(sb.toString(), reader.word());
+		assertEquals(Integer.MAX_VALUE, reader.count());
+		assertFalse(reader.next());
+		reader.close();
+		f.delete();
+
+		// the shared prefix survives the buffer of the previous word growing
+		writer = RunFormat.BINARY.openWriter(f, 64);
+		writer.write(sb.toString(), 1);
+		writer.write(sb + "a", 2);
+		writer.write(sb + "b", 3);
+		writer.close();
+		assertTrue(f.length() < 2 * sb.length());
+		reader = RunFormat.BINARY.openReader(f, 64);
+		assertTrue(reader.next());
+		assertTrue(reader.next());
+		assertTrue(reader.next());
+		assertEquals(sb + "b", reader.word());
+		assertEquals(3, reader.count());
+		reader.close();
+		f.delete();
+
+		assertTrue(Utf8.ORDER.compare("\uffff", "\ud83d\ude00") < 0);
+		assertTrue("\uffff".compareTo("\ud83d\ude00") > 0);
+	}
+
+	@Test
+	public void testCompressedRunFormat() throws Exception {
+		File dir = new File("tmp/compressed-test");
+		dir.mkdirs();
+		File binary = new File(dir, "binary");
+		File compressed = new File(dir, "compressed");
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 300; i++) {
+			sb.append('z');
+		}
+		for (int bufferSize : new int[] { 64, 1 << 16 }) {
+			RunWriter b = RunFormat.BINARY.openWriter(binary, bufferSize);
+			RunWriter c = RunFormat.COMPRESSED.openWriter(compressed,
+					bufferSize);
+			for (int i = 0; i < 5000; i++) {
+				String word = String.format("word%05d", i);
+				b.write(word, i % 17);
+				c.write(word, i % 17);
+			}
+			b.write(sb.toString(), 1);
+			c.write(sb.toString(), 1);
+			b.close();
+			c.close();
+			assertEquals(binary.length(), b.getBytesWritten());
+			assertEquals(binary.length(), c.getBytesWritten());
+			assertTrue(compressed.length() * 2 < binary.length());
+
+			// read with another buffer size than written
+			RunReader reader = RunFormat.COMPRESSED.openReader(compressed, 256);
+			for (int i = 0; i < 5000; i++) {
+				assertTrue(reader.next());
+				assertEquals(String.format("word%05d", i), reader.word());
+				assertEquals(i % 17, reader.count());
+			}
+			assertTrue(reader.next());
+			assertEquals(sb.toString(), reader.word());
+			assertFalse(reader.next());
+			reader.close();
+		}
+
+		// merged files are compressed too
+		KWayMerger merger = new KWayMerger(dir, RunFormat.COMPRESSED, 2, 128);
+		File copy = new File(dir, "copy");
+		File target = new File(dir, "merged");
+		java.nio.file.Files.copy(compressed.toPath(), copy.toPath());
+		merger.merge(Arrays.asList(compressed, copy), target);
+		RunReader reader = RunFormat.COMPRESSED.openReader(target, 1024);
+		assertTrue(reader.next());
+		assertEquals("word00000", reader.word());
+		assertEquals(0, reader.count());
+		assertTrue(reader.next());
+		assertEquals(2, reader.count());
+		reader.close();
+		binary.delete();
+		target.delete();
+	}
+
+	@Test
+	public void testGzipInput() throws Exception {
+		File dir = new File("tmp/gzip-test");
+		dir.mkdirs();
+		File gz = new File(dir, "words.txt.gz");
+		OutputStream out = new GZIPOutputStream(new FileOutputStream(gz));
+		for (int i = 0; i < 1000; i++) {
+			out.write(("apple pear apple " + i + "\n").getBytes("UTF-8"));
+		}
+		out.close();
+
+		InMemoryWordCountStrategy strategy = new InMemoryWordCountStrategy(
+				new TokenStream(new CharTokenizer(InputFiles.open(gz))), 1);
+		strategy.compute();
+		assertEquals("apple", strategy.get().get("top").get(0).word);
+		assertEquals(2000, strategy.get().get("top").get(0).count);
+
+		CorpusWordCountStrategy corpus = new CorpusWordCountStrategy(
+				Arrays.asList(gz), 1, 1);
+		corpus.compute();
+		assertEquals(2000, corpus.get().get("top").get(0).count);
+		gz.delete();
+	}
+
+	@Test
+	public void testApproximateStrategy() throws Exception {
+		// Zipf-like: word i occurs about 2000 / i times
+		StringBuilder sb = new StringBuilder();
+		int tokens = 0;
+		for (int i = 1; i <= 2000; i++) {
+			for (int j = 0; j < 2000 / i; j++) {
+				sb.append("w").append(i).append(' ');
+				tokens++;
+			}
+		}
+		String myString = sb.toString();
+
+		double epsilon = 0.01;
+		ApproximateWordCountStrategy strategy = new ApproximateWordCountStrategy(
+				new TokenStream(new CharTokenizer(new ByteArrayInputStream(
+						myString.getBytes()))), 3, epsilon, 0.01);
+		strategy.compute();
+
+		List<WordCountPair> top = strategy.get().get("top");
+		assertEquals(3, top.size());
+		int[] exact = { 2000, 1000, 666 };
+		for (int i = 0; i < 3; i++) {
+			WordCountPair p = top.get(i);
+			assertEquals("w" + (i + 1), p.word);
+			assertTrue(p.count >= exact[i]);
+			assertTrue(p.count - p.error <= exact[i]);
+			assertTrue(p.error <= epsilon * tokens);
+		}
+		assertEquals(tokens, strategy.total());
+		assertTrue(strategy.estimate("w1") >= 2000);
+		assertTrue(strategy.estimate("w1") <= 2000 + epsilon * tokens);
+
+		// evictions keep the index in step: every word is tracked once and
+		// the counts add up to the offers
+		SpaceSaving summary = new SpaceSaving(7);
+		Random random = new Random(1);
+		for (int i = 0; i < 20000; i++) {
+			summary.offer("w" + (int) Math.sqrt(random.nextInt(2500)));
+		}
+		Set<String> seen = new HashSet<String>();
+		long sum = 0;
+		for (WordCountPair p : summary.entries()) {
+			assertTrue(p.word, seen.add(p.word));
+			sum += p.count;
+		}
+		assertEquals(7, seen.size());
+		assertEquals(20000, sum);
+	}
+
+	@Test
+	public void testIncrementalStrategy() throws Exception {
+		File dir = new File("tmp/incremental-test");
+		KWayMerger.deleteTree(dir);
+		dir.mkdirs();
+		File input = new File(dir, "log.txt");
+		File state = new File(dir, "log.state");
+
+		FileOutputStream out = new FileOutputStream(input);
+		out.write("alpha beta alpha gam".getBytes());
+		out.close();
+
+		IncrementalWordCountStrategy first = new IncrementalWordCountStrategy(
+				input, state, 3);
+		first.compute();
+		assertEquals(2, first.count("alpha"));
+		assertEquals(0, first.count("gam"));
+		assertEquals(17, first.getBytesRead());
+
+		out = new FileOutputStream(input, true);
+		out.write("ma alpha\n".getBytes());
+		out.close();
+
+		IncrementalWordCountStrategy second = new IncrementalWordCountStrategy(
+				input, state, 3);
+		second.compute();
+		assertEquals(3, second.count("alpha"));
+		assertEquals(1, second.count("gamma"));
+		assertEquals(1, second.count("beta"));
+		assertEquals(12, second.getBytesRead());
+		assertEquals(5, second.getTokenCount());
+		assertEquals("alpha", second.get().get("top").get(0).word);
+
+		// replaced by a shorter file, counted from scratch
+		out = new FileOutputStream(input);
+		out.write("delta ".getBytes());
+		out.close();
+		IncrementalWordCountStrategy third = new IncrementalWordCountStrategy(
+				input, state, 3);
+		third.compute();
+		assertEquals(0, third.count("alpha"));
+		assertEquals(1, third.count("delta"));
+
+		// other filters, counted from scratch, then resumed with the same
+		out = new FileOutputStream(input, true);
+		out.write("Delta ".getBytes());
+		out.close();
+		IncrementalWordCountStrategy lower = new IncrementalWordCountStrategy(
+				input, state, 3, new LowerCaseFilter());
+		lower.compute();
+		assertEquals(2, lower.count("delta"));
+		assertEquals(12, lower.getBytesRead());
+		lower = new IncrementalWordCountStrategy(input, state, 3,
+				new LowerCaseFilter());
+		lower.compute();
+		assertEquals(2, lower.count("delta"));
+		assertEquals(0, lower.getBytesRead());
+
+		// another file with the same state, counted from scratch
+		File other = new File(dir, "other.txt");
+		out = new FileOutputStream(other);
+		out.write("delta epsilon delta delta delta ".getBytes());
+		out.close();
+		IncrementalWordCountStrategy moved = new IncrementalWordCountStrategy(
+				other, state, 3, new LowerCaseFilter());
+		moved.compute();
+		assertEquals(4, moved.count("delta"));
+		assertEquals(1, moved.count("epsilon"));
+		String[] left = dir.list();
+		Arrays.sort(left);
+		assertEquals(Arrays.asList("log.state", "log.state.counts.6",
+				"log.txt", "other.txt"), Arrays.asList(left));
+	}
+
+	@Test
+	public void testWordIndex() throws Exception {
+		File dir = new File("tmp/index-test");
+		dir.mkdirs();
+		File f = new File(dir, "words.wix");
+		WordIndexWriter writer = new WordIndexWriter(f, 10);
+		List<String> words = new ArrayList<String>();
+		for (int i = 0; i < 5000; i++) {
+			words.add(String.format("word%05d", i));
+		}
+		words.add("\u00e9t\u00e9");
+		for (String w : words) {
+			writer.add(w, w.length() + (w.hashCode() & 0xff));
+		}
+		writer.close();
+		assertFalse(new File(dir, "words.wix.tmp").exists());
+
+		// a failed rewrite leaves the old index in place
+		long length = f.length();
+		WordIndexWriter failed = new WordIndexWriter(f, 10);
+		failed.add("b", 1);
+		try {
+			failed.add("a", 1);
+			fail();
+		} catch (IllegalArgumentException e) {
+			failed.abort();
+		}
+		assertEquals(length, f.length());
+		assertFalse(new File(dir, "words.wix.tmp").exists());
+
+		WordIndex index = new WordIndex(f);
+		assertEquals(5001, index.size());
+		for (String w : words) {
+			assertEquals(w.length() + (w.hashCode() & 0xff), index.count(w));
+		}
+		assertEquals(0, index.count("word"));
+		assertEquals(0, index.count("a"));
+		assertEquals(0, index.count("zzz"));
+
+		List<WordCountPair> prefix = index.prefix("word012", 100);
+		assertEquals(100, prefix.size());
+		assertEquals("word01200", prefix.get(0).word);
+		assertEquals("word01299", prefix.get(99).word);
+
+		List<WordCountPair> range = index.range("word04990", null, 100);
+		assertEquals(11, range.size());
+		assertEquals("\u00e9t\u00e9", range.get(10).word);
+
+		List<WordCountPair> top = index.top(3);
+		assertEquals(3, top.size());
+		assertTrue(top.get(0).count >= top.get(1).count);
+		assertEquals(10, index.bottom(100).size());
+	}
+
+	@Test
+	public void testCorpusStrategy() throws Exception {
+		File dir = new File("tmp/corpus-test");
+		dir.mkdirs();
+		List<File> documents = new ArrayList<File>();
+		for (int d = 0; d < 20; d++) {
+			File f = new File(dir, String.format("doc%02d.txt", d));
+			PrintWriter writer = new PrintWriter(f);
+			for (int i = 0; i <= d; i++) {
+				writer.print("common doc" + d + " ");
+			}
+			writer.close();
+			documents.add(f);
+		}
+		assertEquals(documents, CorpusWordCountStrategy.listDocuments(dir
+				.getPath()));
+
+		CorpusWordCountStrategy strategy = new CorpusWordCountStrategy(
+				documents, 4, 2, new LowerCaseFilter());
+		strategy.compute();
+
+		Map<File, Map<String, List<WordCountPair>>> results = strategy
+				.getDocumentResults();
+		assertEquals(20, results.size());
+		List<WordCountPair> top = results.get(documents.get(7)).get("top");
+		assertEquals("common", top.get(0).word);
+		assertEquals(8, top.get(0).count);
+		assertEquals("doc7", top.get(1).word);
+
+		List<WordCountPair> global = strategy.get().get("top");
+		assertEquals("common", global.get(0).word);
+		assertEquals(210, global.get(0).count);
+		assertEquals("doc19", global.get(1).word);
+		assertEquals(1, strategy.get().get("bottom").get(0).count);
+	}
+
+	@Test
+	public void testMetrics() throws Exception {
+		File dir = new File("tmp/metrics-test");
+		dir.mkdirs();
+		File input = new File(dir, "input.txt");
+		PrintWriter writer = new PrintWriter(input, "UTF-8");
+		for (int i = 0; i < 20000; i++) {
+			writer.println("word" + (i % 2000) + " common");
+		}
+		writer.close();
+
+		Recording recording = new Recording();
+		recording.enable("hs.kwords.Phase");
+		recording.enable("hs.kwords.RunSpilled");
+		recording.enable("hs.kwords.Summary");
+		recording.start();
+
+		InputStream in = new FileInputStream(input);
+		ExternalSortWordCountStrategy strategy = new ExternalSortWordCountStrategy(
+				new TokenStream(new CharTokenizer(in)));
+		strategy.setMemoryBudget(16 << 10);
+		strategy.setPipelineDepth(1);
+		strategy.setRunFormat(RunFormat.COMPRESSED);
+		strategy.compute();
+		in.close();
+
+		recording.stop();
+		Path dump = new File(dir, "metrics.jfr").toPath();
+		recording.dump(dump);
+		recording.close();
+
+		WordCountMetrics metrics = strategy.getMetrics();
+		assertEquals(40000, metrics.getTokens());
+		assertEquals(input.length(), metrics.getBytesRead());
+		assertTrue(metrics.getRunsSpilled() > 1);
+		assertTrue(metrics.getBytesSpilled() > 0);
+		assertTrue(metrics.getSpillCompressionRatio() > 1);
+		assertEquals(1, metrics.getMergePasses());
+		assertTrue(metrics.getPeakTableSize() > 0);
+		assertTrue(metrics.getPeakTableBytes() >= 16 << 10);
+		assertEquals(Arrays.asList("count", "merge", "select"),
+				new ArrayList<String>(metrics.getPhaseNanos().keySet()));
+		assertTrue(metrics.toString().contains(" tokens=40000 "));
+
+		int phases = 0;
+		int spilled = 0;
+		long summaryTokens = 0;
+		for (RecordedEvent e : RecordingFile.readAllEvents(dump)) {
+			String name = e.getEventType().getName();
+			if (name.equals("hs.kwords.Phase")) {
+				phases++;
+			} else if (name.equals("hs.kwords.RunSpilled")) {
+				spilled++;
+			} else if (name.equals("hs.kwords.Summary")) {
+				summaryTokens = e.getLong("tokens");
+			}
+		}
+		assertEquals(3, phases);
+		assertEquals(metrics.getRunsSpilled(), spilled);
+		assertEquals(40000, summaryTokens);
+	}
+
+	@Test
+	public void testLowerCaseStopWordFilter() throws Exception {
+		List<String> words = new ArrayList<String>();
+		for (int i = 0; i < 500; i++) {
+			words.add("stop" + i);
+		}
+		// same String.hashCode()
+		words.add("Aa");
+		words.add("BB");
+		StopWordSet set = new StopWordSet(words);
+		assertEquals(502, set.size());
+		for (String w : words) {
+			assertTrue(w, set.contains(w));
+			char[] buf = ("  " + w).toCharArray();
+			assertTrue(w, set.contains(buf, 2, w.length()));
+		}
+		assertFalse(set.contains("stop500"));
+		assertFalse(set.contains("stop"));
+		assertFalse(set.contains(""));
+		assertFalse(new StopWordSet(new ArrayList<String>()).contains("a"));
+
+		StopWordFilter stopWordFilter = new StopWordFilter(stopWordsFilePath);
+		LowerCaseStopWordFilter fused = new LowerCaseStopWordFilter(
+				stopWordsFilePath);
+		String text = "The quick BROWN fox, and the Ärger of A Über-dog!\n"
+				+ "It is what it IS; 'Tis not";
+		TokenStream expected = new TokenStream(new CharTokenizer(
+				new ByteArrayInputStream(text.getBytes("UTF-8"))),
+				new LowerCaseFilter(), stopWordFilter);
+		TokenStream actual = new TokenStream(new CharTokenizer(
+				new ByteArrayInputStream(text.getBytes("UTF-8"))), fused);
+		while (expected.hasNext()) {
+			assertTrue(actual.hasNext());
+			assertEquals(expected.next(), actual.next());
+		}
+		assertFalse(actual.hasNext());
+		assertEquals("brown", fused.filter("BROWN"));
+		assertNull(fused.filter("THE"));
+	}
+
+	private List<String> tokens(TokenStream ts) {
+		List<String> lst = new ArrayList<String>();
+		while (ts.hasNext()) {
+			lst.add(ts.next());
+		}
+		return lst;
+	}
+
+	private List<String> batchTokens(TokenStream ts, int capacity) {
+		List<String> lst = new ArrayList<String>();
+		TokenBatch batch = new TokenBatch(capacity);
+		while (ts.nextBatch(batch)) {
+			assertTrue(batch.size() > 0);
+			for (int i = 0; i < batch.size(); i++) {
+				lst.add(batch.toString(i));
+			}
+		}
+		return lst;
+	}
+
+	private CharTokenizer utf8Tokenizer(byte[] text) throws Exception {
+		return new CharTokenizer(new InputStreamReader(
+				new ByteArrayInputStream(text), "UTF-8"));
+	}
+
+	@Test
+	public void testTokenBatch() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 2000; i++) {
+			sb.append(i % 3 == 0 ? "The " : "the ").append("Word").append(i % 17)
+					.append(i % 50 == 0 ? " ÄRGER, " : " ").append("is\n");
+		}
+		byte[] text = sb.toString().getBytes("UTF-8");
+		TokenFilter dropShort = new TokenFilter() {
+			public String filter(String w) {
+				return w.length() < 3 ? null : w + "!";
+			}
+		};
+
+		for (int capacity : new int[] { 1, 3, 1024 }) {
+			List<String> expected = tokens(new TokenStream(
+					utf8Tokenizer(text), new LowerCaseFilter(),
+					new StopWordFilter(stopWordsFilePath), dropShort));
+			assertEquals(expected, batchTokens(new TokenStream(
+					utf8Tokenizer(text), new LowerCaseFilter(),
+					new StopWordFilter(stopWordsFilePath), dropShort), capacity));
+			assertEquals(expected, batchTokens(new TokenStream(
+					utf8Tokenizer(text), new LowerCaseStopWordFilter(
+							stopWordsFilePath), dropShort), capacity));
+			assertTrue(expected.contains("ärger!"));
+			assertFalse(expected.contains("the!"));
+		}
+
+		// default fill() of other tokenizers, after a token read with next()
+		TokenStream ts = new TokenStream(new WhiteSpaceTokenizer(
+				new ByteArrayInputStream(text)), new LowerCaseFilter());
+		assertEquals("the", ts.next());
+		List<String> rest = batchTokens(ts, 100);
+		assertEquals("word0", rest.get(0));
+		assertEquals(2000 * 3 + 40 - 1, rest.size());
+
+		WordCountTable table = new WordCountTable();
+		TokenBatch batch = new TokenBatch();
+		ts = new TokenStream(utf8Tokenizer(text), new LowerCaseStopWordFilter(
+				stopWordsFilePath));
+		while (ts.nextBatch(batch)) {
+			table.incrementAll(batch);
+		}
+		assertEquals(40, table.get("ärger"));
+		assertEquals(118, table.get("word0"));
+	}
+
+	@Test
+	public void testAdaptiveStrategy() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 20000; i++) {
+			sb.append("word").append(i % 3000).append(' ').append("common")
+					.append(i % 7).append('\n');
+		}
+		byte[] text = sb.toString().getBytes("UTF-8");
+
+		InMemoryWordCountStrategy expected = new InMemoryWordCountStrategy(
+				new TokenStream(new CharTokenizer(new ByteArrayInputStream(text))),
+				10);
+		expected.compute();
+
+		AdaptiveWordCountStrategy small = new AdaptiveWordCountStrategy(
+				new TokenStream(new CharTokenizer(new ByteArrayInputStream(text))),
+				10);
+		small.compute();
+		assertFalse(small.hasSpilled());
+		assertEquals(0, small.getMetrics().getRunsSpilled());
+		assertPairsEqual(expected.get().get("top"), small.get().get("top"));
+		assertPairsEqual(expected.get().get("bottom"), small.get().get("bottom"));
+
+		for (int depth = 1; depth <= 2; depth++) {
+			AdaptiveWordCountStrategy large = new AdaptiveWordCountStrategy(
+					new TokenStream(new CharTokenizer(new ByteArrayInputStream(
+							text))), 10);
+			large.setMemoryBudget(32 << 10);
+			large.setPipelineDepth(depth);
+			large.compute();
+			assertTrue(large.hasSpilled());
+			WordCountMetrics metrics = large.getMetrics();
+			assertEquals("adaptive", metrics.getStrategy());
+			assertTrue(metrics.getRunsSpilled() > 1);
+			assertEquals(40000, metrics.getTokens());
+			assertEquals(text.length, metrics.getBytesRead());
+			assertPairsEqual(expected.get().get("top"), large.get().get("top"));
+			assertPairsEqual(expected.get().get("bottom"), large.get().get(
+					"bottom"));
+		}
+	}
+
+	@Test
+	public void testUtf8Tokenizer() throws Exception {
+		String[] pieces = { "the", "Word", "abcdefghijklmnopq", "x", "ÄRGER",
+				"naïve", "don't", "(end).", "--", "a\u2003b", "\u00a0nbsp",
+				"ctrl\u0001char", "\ud83d\ude00smile", "{set}", "path/to\\x",
+				"12:30;", "why?", "#tag", "café!" };
+		String[] gaps = { " ", "\n", "\t", "  ", "\r\n", " \u001f" };
+		Random random = new Random(7);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 20000; i++) {
+			// longer than the window of a direct buffer
+			if (i == 10000) {
+				for (int j = 0; j < 70000; j++) {
+					sb.append((char) ('a' + j % 26));
+				}
+				sb.append(' ');
+			}
+			sb.append(pieces[random.nextInt(pieces.length)]);
+			if (random.nextInt(4) == 0)
+				sb.append(pieces[random.nextInt(pieces.length)]);
+			sb.append(gaps[random.nextInt(gaps.length)]);
+		}
+		sb.append("last");
+		byte[] text = sb.toString().getBytes("UTF-8");
+		List<String> expected = tokens(new TokenStream(utf8Tokenizer(text)));
+		assertTrue(expected.contains("ÄRGER"));
+		assertTrue(expected.contains("\u00a0nbsp"));
+		assertFalse(expected.contains("a\u2003b"));
+
+		assertEquals(expected, tokens(new TokenStream(new Utf8Tokenizer(
+				ByteBuffer.wrap(text)))));
+		for (int capacity : new int[] { 1, 7, 1024 }) {
+			assertEquals(expected, batchTokens(new TokenStream(
+					new Utf8Tokenizer(ByteBuffer.wrap(text))), capacity));
+		}
+
+		// a direct buffer with the text between position and limit
+		ByteBuffer direct = ByteBuffer.allocateDirect(text.length + 10);
+		direct.put("xx ".getBytes("UTF-8")).put(text).put(" yy".getBytes("UTF-8"));
+		direct.position(3).limit(3 + text.length);
+		Utf8Tokenizer tokenizer = new Utf8Tokenizer(direct);
+		assertEquals("the", new Utf8Tokenizer(ByteBuffer.wrap("the end"
+				.getBytes("UTF-8"))).next());
+		assertEquals(expected, batchTokens(new TokenStream(tokenizer), 100));
+		assertEquals(text.length, tokenizer.getBytesRead());
+		assertEquals(3, direct.position());
+
+		// with the fused filter, as TopBottom5 runs it
+		assertEquals(tokens(new TokenStream(utf8Tokenizer(text),
+				new LowerCaseStopWordFilter(stopWordsFilePath))),
+				batchTokens(new TokenStream(new Utf8Tokenizer(ByteBuffer
+						.wrap(text)), new LowerCaseStopWordFilter(
+						stopWordsFilePath)), 1024));
+	}
+
+	@Test
+	public void testMapReduceStrategy() throws Exception {
+		File dir = new File("tmp/mapreduce-test");
+		KWayMerger.deleteTree(dir);
+		dir.mkdirs();
+		File f = new File(dir, "input.txt");
+		PrintWriter writer = new PrintWriter(f, "UTF-8");
+		Random random = new Random(42);
+		for (int i = 0; i < 30000; i++) {
+			writer.print("Word" + random.nextInt(5000) + " the ärger"
+					+ (i % 11) + ", ");
+			if (i % 10 == 0)
+				writer.println();
+		}
+		writer.close();
+
+		InMemoryWordCountStrategy expected = new InMemoryWordCountStrategy(
+				new TokenStream(new Utf8Tokenizer(ByteBuffer
+						.wrap(java.nio.file.Files.readAllBytes(f.toPath()))),
+						new LowerCaseStopWordFilter(stopWordsFilePath)), 10);
+		expected.compute();
+
+		MapReduceWordCountStrategy mapReduce = new MapReduceWordCountStrategy(
+				f, 2, 3, 10, stopWordsFilePath);
+		mapReduce.setWorkDir(new File(dir, "work"));
+		mapReduce.setMemoryBudget(32 << 10);
+		mapReduce.setWorkerHeap("64m");
+		mapReduce.compute();
+		assertPairsEqual(expected.get().get("top"), mapReduce.get().get("top"));
+		assertPairsEqual(expected.get().get("bottom"),
+				mapReduce.get().get("bottom"));
+		WordCountMetrics metrics = mapReduce.getMetrics();
+		assertEquals("mapreduce", metrics.getStrategy());
+		assertEquals(expected.getMetrics().getTokens(), metrics.getTokens());
+		assertEquals(f.length(), metrics.getBytesRead());
+		// the maps spilled, and their runs count as the coordinator's
+		assertTrue(metrics.getRunsSpilled() > 2);
+		assertTrue(metrics.getBytesSpilled() > 0);
+
+		// the reduce files hold every count once, in key order
+		List<File> outputs = mapReduce.getOutputFiles();
+		assertEquals(3, outputs.size());
+		long total = 0;
+		String last = null;
+		for (File out : outputs) {
+			RunReader reader = RunFormat.COMPRESSED.openReader(out, 1024);
+			while (reader.next()) {
+				if (last != null)
+					assertTrue(Utf8.ORDER.compare(last, reader.word()) < 0);
+				last = reader.word();
+				total += reader.count();
+			}
+			reader.close();
+		}
+		assertEquals(metrics.getTokens(), total);
+		// and nothing else is left
+		assertEquals(outputs.size(), new File(dir, "work").list().length);
+
+		// a failing worker leaves only its logs
+		File failing = new File(dir, "failing");
+		KWayMerger.deleteTree(failing);
+		mapReduce = new MapReduceWordCountStrategy(f, 2, 3, 10,
+				stopWordsFilePath);
+		mapReduce.setWorkDir(failing);
+		mapReduce.setWorkerHeap("1k");
+		try {
+			mapReduce.compute();
+			fail("the workers cannot start");
+		} catch (IOException e) {
+			// expected
+		}
+		for (String name : failing.list()) {
+			assertTrue(name, name.endsWith(".log"));
+		}
+
+		// without a work directory every compute() has its own, and removes it
+		String[] before = new File("tmp").list();
+		mapReduce = new MapReduceWordCountStrategy(f, 2, 3, 10,
+				stopWordsFilePath);
+		mapReduce.setWorkerHeap("64m");
+		mapReduce.compute();
+		assertPairsEqual(expected.get().get("top"), mapReduce.get().get("top"));
+		assertEquals(before.length, new File("tmp").list().length);
+		assertTrue(mapReduce.getOutputFiles().isEmpty());
+	}
+
+	private static String query(int port, String path) throws Exception {
+		java.net.HttpURLConnection c = (java.net.HttpURLConnection) new java.net.URL(
+				"http://localhost:" + port + path).openConnection();
+		InputStream in = c.getResponseCode() == 200 ? c.getInputStream() : c
+				.getErrorStream();
+		String body = new String(in.readAllBytes(), "UTF-8");
+		in.close();
+		return c.getResponseCode() + " " + body;
+	}
+
+	@Test
+	public void testWordCountServer() throws Exception {
+		File dir = new File("tmp/server-test");
+		dir.mkdirs();
+		File a = new File(dir, "a.txt");
+		PrintWriter writer = new PrintWriter(a, "UTF-8");
+		for (int i = 0; i < 1000; i++) {
+			writer.println("Apple apple pear The " + (i % 3 == 0 ? "Fig" : ""));
+		}
+		writer.close();
+		File b = new File(dir, "b.txt");
+		writer = new PrintWriter(b, "UTF-8");
+		writer.println("kiwi kiwi Ärger");
+		writer.close();
+
+		WordCountServer server = new WordCountServer(
+				StopWordSet.read(stopWordsFilePath), 1);
+		server.start(0, 2);
+		try {
+			int port = server.getPort();
+			String corpus = "corpus=" + a.getPath();
+			assertEquals("200 apple\t2000\npear\t1000\n",
+					query(port, "/top?k=2&" + corpus));
+			assertEquals("200 apple\t2000\npear\t1000\n",
+					query(port, "/top?k=2&" + corpus));
+			assertEquals("200 fig\t334\n", query(port, "/bottom?k=1&" + corpus));
+			assertEquals("200 Apple\t2000\n",
+					query(port, "/count?word=Apple&" + corpus));
+			assertEquals("200 The\t0\n", query(port, "/count?word=The&" + corpus));
+			assertEquals("200 Apple\t1000\n",
+					query(port, "/count?filter=none&word=Apple&" + corpus));
+			assertEquals("200 ärger\t1\n", query(port,
+					"/count?word=%C3%A4rger&corpus=" + b.getPath()));
+			assertTrue(query(port, "/top?corpus=" + dir.getPath() + "/none")
+					.startsWith("404 "));
+			assertTrue(query(port, "/top?filter=upper&" + corpus).startsWith(
+					"400 "));
+			assertTrue(query(port, "/top?k=2147483647&" + corpus).startsWith(
+					"400 "));
+
+			// one hit, three tables counted, of which the budget keeps one
+			String stats = query(port, "/stats");
+			assertTrue(stats, stats.contains("resultHits\t1\n"));
+			assertTrue(stats, stats.contains("tablesCounted\t3\n"));
+			assertTrue(stats, stats.contains("tablesEvicted\t2\n"));
+			assertTrue(stats, stats.contains("tablesResident\t1\n"));
+		} finally {
+			server.stop();
+		}
+
+		// a cache too small for any answer keeps none
+		server = new WordCountServer(StopWordSet.read(stopWordsFilePath),
+				1 << 20, 16);
+		server.start(0, 1);
+		try {
+			int port = server.getPort();
+			String corpus = "corpus=" + a.getPath();
+			assertEquals("200 apple\t2000\n", query(port, "/top?k=1&" + corpus));
+			assertEquals("200 apple\t2000\n", query(port, "/top?k=1&" + corpus));
+			assertTrue(query(port, "/stats").contains("resultHits\t0\n"));
+		} finally {
+			server.stop();
+		}
+	}
+
+	@Test
+	public void testNGramStrategy() throws Exception {
+		Random random = new Random(7);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 20000; i++) {
+			sb.append("w").append(random.nextInt(i % 2 == 0 ? 30 : 3000))
+					.append(i % 9 == 0 ? " The\n" : " ");
+		}
+		byte[] text = sb.toString().getBytes("UTF-8");
+
+		// the n-grams of the filtered words, counted as strings
+		List<String> tokens = new ArrayList<String>();
+		TokenStream ts = new TokenStream(new Utf8Tokenizer(
+				ByteBuffer.wrap(text)), new LowerCaseStopWordFilter(
+				stopWordsFilePath));
+		while (ts.hasNext()) {
+			tokens.add(ts.next());
+		}
+		List<Map<String, Integer>> expected = new ArrayList<Map<String, Integer>>();
+		for (int n = 1; n <= 3; n++) {
+			Map<String, Integer> counts = new java.util.HashMap<String, Integer>();
+			for (int i = n - 1; i < tokens.size(); i++) {
+				String gram = String.join(" ", tokens.subList(i - n + 1, i + 1));
+				Integer c = counts.get(gram);
+				counts.put(gram, c == null ? 1 : c + 1);
+			}
+			expected.add(counts);
+		}
+
+		// 8 bit ids run out every 254 words, far below the 3000 of the text
+		for (int idBits : new int[] { 21, 8 }) {
+			for (long budget : new long[] { 1L << 30, 64 << 10 }) {
+				NGramWordCountStrategy strategy = new NGramWordCountStrategy(
+						new TokenStream(new Utf8Tokenizer(ByteBuffer.wrap(text)),
+								new LowerCaseStopWordFilter(stopWordsFilePath)), 3,
+						10);
+				strategy.setMemoryBudget(budget);
+				strategy.setMergeFanIn(4);
+				strategy.setTmpDir(new File("tmp/ngram-test"));
+				strategy.setIdBits(idBits);
+				strategy.compute();
+				WordCountMetrics metrics = strategy.getMetrics();
+				assertEquals(budget > 1 << 20 && idBits == 21,
+						metrics.getRunsSpilled() == 0);
+				assertEquals(tokens.size(), metrics.getTokens());
+				for (int n = 1; n <= 3; n++) {
+					TopKSelector selector = new TopKSelector(10);
+					for (Map.Entry<String, Integer> e : expected.get(n - 1)
+							.entrySet()) {
+						selector.offer(e.getKey(), e.getValue());
+					}
+					assertPairsEqual(selector.top(), strategy.get().get("top" + n));
+					assertPairsEqual(selector.bottom(),
+							strategy.get().get("bottom" + n));
+				}
+				assertEquals(strategy.get().get("top1"), strategy.get().get("top"));
+			}
+		}
+	}
+
+	private static void assertWindowList(Map<String, Integer> expected,
+			List<Integer> expectedCounts, List<WordCountPair> actual) {
+		assertEquals(expectedCounts.size(), actual.size());
+		for (int i = 0; i < actual.size(); i++) {
+			WordCountPair p = actual.get(i);
+			assertEquals(p.word, expected.get(p.word).intValue(), p.count);
+			assertEquals(expectedCounts.get(i).intValue(), p.count);
+		}
+	}
+
+	@Test
+	public void testWindowedStrategy() throws Exception {
+		// a few frequent words and a long tail of new ones, so that the word
+		// table is compacted
+		Random random = new Random(3);
+		final List<String> tokens = new ArrayList<String>();
+		for (int i = 0; i < 60000; i++) {
+			tokens.add(i % 3 == 0 ? "new" + i : "w"
+					+ random.nextInt(i < 30000 ? 20 : 50));
+		}
+		StringBuilder sb = new StringBuilder();
+		for (String t : tokens) {
+			sb.append(t).append(' ');
+		}
+
+		final WindowedWordCountStrategy strategy = new WindowedWordCountStrategy(
+				new TokenStream(new Utf8Tokenizer(ByteBuffer.wrap(sb.toString()
+						.getBytes("UTF-8")))), 10,
+				WindowedWordCountStrategy.Unit.TOKENS, 1000, 10);
+		strategy.setHalfLife(500);
+		// snapshots can be read while the stream is counted
+		final List<Long> seen = Collections
+				.synchronizedList(new ArrayList<Long>());
+		Thread reader = new Thread() {
+			public void run() {
+				while (seen.isEmpty() || seen.get(seen.size() - 1) < tokens.size()) {
+					WindowedWordCountStrategy.Snapshot s = strategy.snapshot();
+					if (s.getTop().size() > 10)
+						return;
+					seen.add(s.getTime());
+				}
+			}
+		};
+		reader.start();
+		strategy.compute();
+		reader.join(10000);
+		assertFalse(reader.isAlive());
+		for (int i = 1; i < seen.size(); i++) {
+			assertTrue(seen.get(i - 1) <= seen.get(i));
+		}
+
+		// the window is the last token's bucket of 100 and the 9 before it
+		int n = tokens.size();
+		int from = ((n - 1) / 100 - 9) * 100;
+		Map<String, Integer> window = new java.util.HashMap<String, Integer>();
+		Map<String, Double> decayed = new java.util.HashMap<String, Double>();
+		for (int i = 0; i < n; i++) {
+			String t = tokens.get(i);
+			if (i >= from) {
+				Integer c = window.get(t);
+				window.put(t, c == null ? 1 : c + 1);
+			}
+			Double w = decayed.get(t);
+			double add = Math.pow(2, -(n - 1 - i) / 500.0);
+			decayed.put(t, w == null ? add : w + add);
+		}
+		List<Integer> counts = new ArrayList<Integer>(window.values());
+		Collections.sort(counts);
+
+		WindowedWordCountStrategy.Snapshot snapshot = strategy.snapshot();
+		assertEquals(n, snapshot.getTime());
+		assertEquals(n - from, snapshot.getWindowTokens());
+		assertWindowList(window, counts.subList(0, 10), snapshot.getBottom());
+		Collections.reverse(counts);
+		assertWindowList(window, counts.subList(0, 10), snapshot.getTop());
+
+		List<Map.Entry<String, Double>> byWeight = new ArrayList<Map.Entry<String, Double>>(
+				decayed.entrySet());
+		Collections.sort(byWeight, new java.util.Comparator<Map.Entry<String, Double>>() {
+			public int compare(Map.Entry<String, Double> a,
+					Map.Entry<String, Double> b) {
+				return Double.compare(b.getValue(), a.getValue());
+			}
+		});
+		List<WordCountPair> top = snapshot.getDecayedTop();
+		assertEquals(10, top.size());
+		for (int i = 0; i < 10; i++) {
+			assertEquals(byWeight.get(i).getKey(), top.get(i).word);
+			assertEquals(Math.round(byWeight.get(i).getValue()), top.get(i).count);
+		}
+		assertEquals(snapshot.getTop(), strategy.get().get("top"));
+	}
+
+	@Test
+	public void testWindowedStrategyTime() throws Exception {
+		WindowedWordCountStrategy strategy = new WindowedWordCountStrategy(
+				null, 3, WindowedWordCountStrategy.Unit.MILLISECONDS, 60000, 6);
+		TokenBatch batch = new TokenBatch();
+		batch.add("old");
+		batch.add("old");
+		strategy.add(batch, 1000);
+		batch.clear();
+		batch.add("new");
+		strategy.add(batch, 45000);
+		strategy.publish();
+		assertEquals(3, strategy.snapshot().getWindowTokens());
+		assertEquals("old", strategy.snapshot().getTop().get(0).word);
+
+		// the first bucket falls out after a window
+		strategy.add(batch, 61000);
+		strategy.publish();
+		assertEquals(2, strategy.snapshot().getWindowTokens());
+		assertEquals("new", strategy.snapshot().getTop().get(0).word);
+		assertEquals(1, strategy.snapshot().getTop().size());
+		strategy.advanceTo(200000);
+		assertEquals(0, strategy.snapshot().getWindowTokens());
+		assertTrue(strategy.snapshot().getTop().isEmpty());
+	}
 }